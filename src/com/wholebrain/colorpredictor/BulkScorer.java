@@ -0,0 +1,413 @@
+package com.wholebrain.colorpredictor;
+
+import com.wholebrain.colorpredictor.NeuralNetwork.ColorNeuralNetwork;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Guesses every colour of a file, however large, in constant memory.
+ * The input file is memory-mapped one chunk at a time, and the chunks are scored in parallel, a window of one chunk
+ * per worker at a time : each worker parses the colours right from the mapped bytes into its own buffers,
+ * guesses them with {@link ColorNeuralNetwork#guessBatch(int[], int, int, byte[], float[])}, and writes its results
+ * into its own output buffer, which is then written through a {@link FileChannel} in the order of the chunks.
+ * Nothing is allocated per colour nor per line. Two {@link Format formats} are read :
+ * - BINARY : 3 bytes (r, g, b) per colour. Each result is 1 byte, 0 for black and 1 for white,
+ *   followed by the certainty as a big-endian float if asked for.
+ * - TEXT : one colour per line, written RRGGBB, #RRGGBB, 0xRRGGBB or r,g,b in decimal. Empty lines are skipped.
+ *   Each result is a line "rrggbb,black" or "rrggbb,white", followed by ",0.987654" for the certainty if asked for.
+ */
+public class BulkScorer {
+    public enum Format{
+        BINARY,
+        TEXT
+    }
+
+    // Size of the text chunks, and longest line allowed, in bytes.
+    private static final int TEXT_CHUNK = 1<<20, MAX_LINE = 256;
+    private static final int BINARY_CHUNK = 3<<18;
+    // Colours guessed by one call to the network.
+    private static final int BATCH = 1<<14;
+    // Shortest text line ("0,0,0\n"), and longest result line ("rrggbb,white,0.987654\n").
+    private static final int MIN_LINE = 6, MAX_RESULT_LINE = 22;
+    private static final byte[] BLACK = ",black".getBytes(), WHITE = ",white".getBytes(), HEX = "0123456789abcdef".getBytes();
+
+    private final ColorNeuralNetwork network;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final boolean withCertainties;
+
+    /**
+     * Creates a scorer.
+     * @param network {@link ColorNeuralNetwork} guessing the colours.
+     * @param executor {@link ExecutorService} scoring the chunks.
+     * @param parallelism Number of chunks scored at once, each one holding its own buffers.
+     * @param withCertainties If true, the certainty of each guess is written along with it.
+     */
+    public BulkScorer(ColorNeuralNetwork network, ExecutorService executor, int parallelism, boolean withCertainties){
+        if(parallelism < 1)
+            throw new IllegalArgumentException("BULK SCORER : "+parallelism+" chunks at once are not possible.");
+        this.network = network;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.withCertainties = withCertainties;
+    }
+
+    /**
+     * Returns the {@link Format format} of a file by its extension : BINARY for .bin and .rgb, TEXT otherwise.
+     * @param path {@link Path} of the file.
+     * @return {@link Format}.
+     */
+    public static Format formatOf(Path path){
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".bin") || name.endsWith(".rgb")?Format.BINARY:Format.TEXT;
+    }
+
+    /**
+     * Scores every colour of a file into another one, of the same {@link Format format}.
+     * @param input {@link Path} of the colours.
+     * @param format {@link Format} of the colours.
+     * @param output {@link Path} of the results, replaced if it exists.
+     * @return The number of colours scored.
+     * @throws IOException Exception thrown when reading or writing the files, or when a colour is invalid.
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the workers.
+     */
+    public long score(Path input, Format format, Path output) throws IOException, InterruptedException {
+        Slot[] slots = new Slot[parallelism];
+        for (int s = 0; s< parallelism; s++)
+            slots[s] = new Slot(format);
+        long scored = 0;
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            if(format == Format.BINARY && size%3 != 0)
+                throw new IOException("BULK SCORER : "+size+" bytes is not a whole number of colours of 3 bytes.");
+            List<Slot> window = new ArrayList<>(parallelism);
+            for (long start = 0; start< size;){
+                window.clear();
+                for (int s = 0; s< parallelism && start< size; s++){
+                    start = slots[s].map(in, start, size);
+                    window.add(slots[s]);
+                }
+                for (Future<Void> future : executor.invokeAll(window)){
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        if(e.getCause() instanceof IOException)
+                            throw (IOException)e.getCause();
+                        throw new IllegalStateException("BULK SCORER : A worker failed.", e.getCause());
+                    }
+                }
+                for (Slot slot : window){
+                    while (slot.out.hasRemaining())
+                        out.write(slot.out);
+                    scored+= slot.count;
+                    slot.release();
+                }
+            }
+        }
+        return scored;
+    }
+
+    /**
+     * Buffers of one worker, and the chunk it scores.
+     */
+    private final class Slot implements Callable<Void> {
+        private final Format format;
+        private final int[] colours = new int[BATCH];
+        private final byte[] guesses = new byte[BATCH];
+        private final float[] certainties;
+        private final ByteBuffer out;
+        private MappedByteBuffer chunk;
+        private long chunkStart;
+        private int length, batched;
+        private long count;
+
+        private Slot(Format format){
+            this.format = format;
+            certainties = withCertainties?new float[BATCH]:null;
+            int resultSize = format == Format.BINARY?(withCertainties?5:1):MAX_RESULT_LINE;
+            int maxColours = format == Format.BINARY?BINARY_CHUNK/3:(TEXT_CHUNK+MAX_LINE)/MIN_LINE+1;
+            out = ByteBuffer.allocateDirect(maxColours*resultSize);
+        }
+
+        /**
+         * Maps the next chunk of the input. A text chunk is extended to the end of its last line.
+         * @param in {@link FileChannel} of the input.
+         * @param start Position of the chunk.
+         * @param size Size of the input.
+         * @return Position of the following chunk.
+         * @throws IOException Exception thrown when mapping the input, or when a line is too long.
+         */
+        private long map(FileChannel in, long start, long size) throws IOException {
+            long mapped = Math.min(size-start, format == Format.BINARY?BINARY_CHUNK:TEXT_CHUNK+MAX_LINE);
+            chunk = in.map(FileChannel.MapMode.READ_ONLY, start, mapped);
+            chunkStart = start;
+            length = (int)mapped;
+            if(format == Format.TEXT && start+mapped < size){
+                length = TEXT_CHUNK;
+                while (length < mapped && chunk.get(length-1) != '\n')
+                    length++;
+                if(chunk.get(length-1) != '\n')
+                    throw new IOException("BULK SCORER : A line is longer than "+MAX_LINE+" bytes near byte "
+                            +(start+TEXT_CHUNK)+".");
+            }
+            return start+length;
+        }
+
+        /**
+         * Drops the mapped chunk and empties the output buffer.
+         */
+        private void release(){
+            chunk = null;
+            out.clear();
+        }
+
+        @Override
+        public Void call() throws IOException {
+            out.clear();
+            count = 0;
+            batched = 0;
+            if(format == Format.BINARY)
+                for (int i = 0; i< length; i+= 3)
+                    add((chunk.get(i)&0xFF)<<16 | (chunk.get(i+1)&0xFF)<<8 | chunk.get(i+2)&0xFF);
+            else
+                parseLines();
+            flush();
+            out.flip();
+            return null;
+        }
+
+        /**
+         * Parses the lines of a text chunk, without any {@link String}.
+         * @throws IOException Exception thrown when a line isn't a colour.
+         */
+        private void parseLines() throws IOException {
+            int i = 0;
+            while (i < length){
+                int end = i;
+                while (end < length && chunk.get(end) != '\n')
+                    end++;
+                int from = i, to = end;
+                while (from < to && isSpace(chunk.get(from)))
+                    from++;
+                while (to > from && isSpace(chunk.get(to-1)))
+                    to--;
+                if(from < to)
+                    add(parseLine(from, to));
+                i = end+1;
+            }
+        }
+
+        /**
+         * Parses one colour : RRGGBB, #RRGGBB, 0xRRGGBB or r,g,b.
+         * @param from Index of the first byte of the line in the chunk.
+         * @param to Index following its last byte.
+         * @return Colour packed as 0xRRGGBB.
+         * @throws IOException Exception thrown when the line isn't a colour.
+         */
+        private int parseLine(int from, int to) throws IOException {
+            boolean decimal = false;
+            for (int i = from; i< to; i++)
+                if(chunk.get(i) == ','){
+                    decimal = true;
+                    break;
+                }
+            if(decimal){
+                int rgb = 0, components = 0, value = -1;
+                for (int i = from; i<= to; i++){
+                    byte c = i<to?chunk.get(i):(byte)',';
+                    if(c >= '0' && c <= '9'){
+                        value = (value<0?0:value)*10 + c-'0';
+                        if(value > 255)
+                            throw invalid(from);
+                    }else if(c == ','){
+                        if(value < 0 || ++components > 3)
+                            throw invalid(from);
+                        rgb = rgb<<8|value;
+                        value = -1;
+                    }else if(!isSpace(c))
+                        throw invalid(from);
+                }
+                if(components != 3)
+                    throw invalid(from);
+                return rgb;
+            }
+            if(chunk.get(from) == '#')
+                from++;
+            else if(to-from == 8 && chunk.get(from) == '0' && (chunk.get(from+1)|0x20) == 'x')
+                from+= 2;
+            if(to-from != 6)
+                throw invalid(from);
+            int rgb = 0;
+            for (int i = from; i< to; i++){
+                int digit = Character.digit(chunk.get(i), 16);
+                if(digit < 0)
+                    throw invalid(from);
+                rgb = rgb<<4|digit;
+            }
+            return rgb;
+        }
+
+        private IOException invalid(int index){
+            return new IOException("BULK SCORER : Invalid colour on the line near byte "+(chunkStart+index)+".");
+        }
+
+        /**
+         * Adds a colour to the current batch, guessed once the batch is full.
+         * @param rgb Colour packed as 0xRRGGBB.
+         */
+        private void add(int rgb){
+            colours[batched++] = rgb;
+            if(batched == BATCH)
+                flush();
+        }
+
+        /**
+         * Guesses the current batch and writes its results.
+         */
+        private void flush(){
+            if(batched == 0)
+                return;
+            network.guessBatch(colours, 0, batched, guesses, certainties);
+            for (int i = 0; i< batched; i++){
+                if(format == Format.BINARY){
+                    out.put(guesses[i]);
+                    if(withCertainties)
+                        out.putFloat(certainties[i]);
+                    continue;
+                }
+                int rgb = colours[i];
+                for (int shift = 20; shift>= 0; shift-= 4)
+                    out.put(HEX[(rgb>>shift)&0xF]);
+                out.put(guesses[i]==0?BLACK:WHITE);
+                if(withCertainties)
+                    putCertainty(certainties[i]);
+                out.put((byte)'\n');
+            }
+            count+= batched;
+            batched = 0;
+        }
+
+        /**
+         * Writes ",0.dddddd" (or ",1.000000") for a certainty within [0;1], without any {@link String}.
+         * @param certainty {@link float}.
+         */
+        private void putCertainty(float certainty){
+            int millionths = (int)Math.round(Math.max(0.0, Math.min(1.0, certainty))*1_000_000.0);
+            out.put((byte)',').put((byte)(millionths == 1_000_000?'1':'0')).put((byte)'.');
+            int fraction = millionths%1_000_000;
+            for (int divisor = 100_000; divisor> 0; divisor/= 10)
+                out.put((byte)('0'+fraction/divisor%10));
+        }
+    }
+
+    private static boolean isSpace(byte c){
+        return c == ' ' || c == '\t' || c == '\r';
+    }
+
+    /**
+     * Scores a file from the command line :
+     * {@code BulkScorer --load model.nns --input colours.txt --output results.txt [--certainty true]
+     * [--format binary|text] [--threads n] [--table true|false] [--map true]}.
+     * The table of the network is compiled first by default when the input holds more colours than the table.
+     * With --map true, the nns file is mapped instead of read onto the heap.
+     * @param args Arguments of the command line.
+     */
+    public static void main(String[] args) {
+        File load = null;
+        Path input = null, output = null;
+        Format format = null;
+        boolean certainty = false, map = false;
+        Boolean table = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            if(args.length%2 != 0)
+                throw new IllegalArgumentException("Missing value after "+args[args.length-1]+".");
+            for (int i = 0; i< args.length; i+= 2){
+                String value = args[i+1];
+                switch (args[i]){
+                    case "--load":
+                        load = new File(value);
+                        break;
+                    case "--input":
+                        input = Paths.get(value);
+                        break;
+                    case "--output":
+                        output = Paths.get(value);
+                        break;
+                    case "--format":
+                        format = Format.valueOf(value.toUpperCase(Locale.ROOT));
+                        break;
+                    case "--certainty":
+                        certainty = Boolean.parseBoolean(value);
+                        break;
+                    case "--table":
+                        table = Boolean.parseBoolean(value);
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(value);
+                        break;
+                    case "--map":
+                        map = Boolean.parseBoolean(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option "+args[i]+".");
+                }
+            }
+            if(load == null || input == null || output == null)
+                throw new IllegalArgumentException("Usage : BulkScorer --load model.nns --input colours --output results"
+                        +" [--certainty true] [--format binary|text] [--threads n] [--table true|false] [--map true]");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "bulk-scorer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            ColorNeuralNetwork network = (map?NnsFile.map(load):NnsFile.read(load)).getColorBrain();
+            Format inputFormat = format != null?format:formatOf(input);
+            long size = input.toFile().length();
+            long estimated = inputFormat == Format.BINARY?size/3:size/8;
+            if(table != null?table:estimated >= 1<<24){
+                long start = System.nanoTime();
+                network.compileTable(certainty);
+                System.out.println(String.format(Locale.ROOT, "Table compiled in %.3f s.",
+                        (System.nanoTime()-start)/1e9));
+            }
+            long start = System.nanoTime();
+            long scored = new BulkScorer(network, executor, threads, certainty).score(input, inputFormat, output);
+            double seconds = (System.nanoTime()-start)/1e9;
+            System.out.println(String.format(Locale.ROOT, "Scored %d colours in %.3f s : %.0f colours/s, %.1f MB/s.",
+                    scored, seconds, scored/seconds, size/seconds/1e6));
+        } catch (IOException | IncorrectFileException e) {
+            System.err.println("Unable to score the file : "+e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted.");
+            System.exit(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
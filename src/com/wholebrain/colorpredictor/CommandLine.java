@@ -0,0 +1,286 @@
+package com.wholebrain.colorpredictor;
+
+import com.wholebrain.colorpredictor.NeuralNetwork.Activation;
+import com.wholebrain.colorpredictor.NeuralNetwork.AutoTrainer;
+import com.wholebrain.colorpredictor.NeuralNetwork.ColorNeuralNetwork;
+import com.wholebrain.colorpredictor.NeuralNetwork.TrainingSampleSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
+
+/**
+ * Headless entry point, to autotrain and evaluate a {@link ColorNeuralNetwork color neural network} without any window,
+ * reading and writing the same nns {@link File files} as the window, so that a network trained on a server
+ * can be opened by the user interface. It never uses JavaFX, so it runs on the class path of a headless JVM :
+ * {@code java -cp <classes> com.wholebrain.colorpredictor.CommandLine --load in.nns --samples 10000000 --save out.nns}
+ * Run it with {@code --help} to list the options.
+ */
+public class CommandLine {
+    private static final int DEFAULT_THREASHOLD = 384, DEFAULT_TRAINING_TIMES = 100, EVALUATION_BATCH = 1<<16;
+    private static final long DEFAULT_SAMPLES = 1_000_000, DEFAULT_EVALUATION = 1_000_000;
+
+    private File load, save;
+    private Long samples, seed;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private AutoTrainer.Mode mode = AutoTrainer.defaultMode();
+    private TrainingSampleSource.Kind sampleKind;
+    private Integer threashold;
+    private String operator;
+    private ColorNeuralNetwork.Precision precision = ColorNeuralNetwork.Precision.DOUBLE;
+    private Activation activation = Activation.SIGMOID;
+    private long evaluation = DEFAULT_EVALUATION;
+
+    /**
+     * Runs the command line. Exits with the status 2 when the arguments are invalid, and 1 when the run fails.
+     * @param args Arguments, see {@link #printHelp()}.
+     */
+    public static void main(String[] args) {
+        CommandLine commandLine = new CommandLine();
+        try {
+            if(commandLine.parse(args))
+                commandLine.run();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Use --help to list the options.");
+            System.exit(2);
+        } catch (IOException | IncorrectFileException e) {
+            System.err.println("Unable to read or write the file : "+e);
+            System.exit(1);
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted.");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads the arguments.
+     * @param args Arguments of the command line.
+     * @return False if there is nothing to run, as when the help is asked for.
+     * @throws IllegalArgumentException if an argument is unknown or invalid.
+     */
+    private boolean parse(String[] args){
+        for (int i = 0; i< args.length; i++){
+            String option = args[i];
+            if(option.equals("--help") || option.equals("-h")){
+                printHelp();
+                return false;
+            }
+            if(i+1 >= args.length)
+                throw new IllegalArgumentException("Missing value after "+option+".");
+            String value = args[++i];
+            switch (option){
+                case "--load":
+                    load = new File(value);
+                    break;
+                case "--save":
+                    save = new File(value);
+                    break;
+                case "--samples":
+                    samples = parsePositive(option, value);
+                    break;
+                case "--threads":
+                    threads = (int)Math.min(Integer.MAX_VALUE, parsePositive(option, value));
+                    if(threads < 1)
+                        throw new IllegalArgumentException(option+" must be at least 1.");
+                    break;
+                case "--mode":
+                    mode = parseEnum(option, value, AutoTrainer.Mode.values());
+                    break;
+                case "--source":
+                    sampleKind = parseEnum(option, value, TrainingSampleSource.Kind.values());
+                    break;
+                case "--seed":
+                    seed = parseLong(option, value);
+                    break;
+                case "--threshold":
+                    threashold = (int)Math.min(Integer.MAX_VALUE, parsePositive(option, value));
+                    break;
+                case "--operator":
+                    operator = value;
+                    break;
+                case "--precision":
+                    precision = parseEnum(option, value, ColorNeuralNetwork.Precision.values());
+                    break;
+                case "--activation":
+                    activation = parseEnum(option, value, Activation.values());
+                    break;
+                case "--evaluate":
+                    evaluation = parsePositive(option, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option "+option+".");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Loads or creates the network, trains it, evaluates it, then saves it.
+     * @throws IOException Exception thrown when reading or writing a file.
+     * @throws IncorrectFileException Custom Exception thrown when the loaded file is unreadable.
+     * @throws InterruptedException if the training is interrupted.
+     */
+    private void run() throws IOException, IncorrectFileException, InterruptedException {
+        NnsFile data;
+        if(load != null){
+            data = NnsFile.read(load);
+            System.out.println("Loaded "+load.getPath()+" ("+data.getColorBrain().getPrecision()+").");
+        }else{
+            data = new NnsFile(seed != null?new ColorNeuralNetwork(precision, activation, seed)
+                    :new ColorNeuralNetwork(precision, activation), true, true, DEFAULT_THREASHOLD,
+                    DEFAULT_TRAINING_TIMES, 0, NnsFile.DEFAULT_OPERATORS);
+            System.out.println("New network ("+precision+", "+activation+" hidden layer).");
+        }
+        ColorNeuralNetwork colorBrain = data.getColorBrain();
+        List<String> operators = data.getOperators();
+        int rgbThreashold = threashold != null?threashold:data.getRgbThreashold();
+        int selectedOperator = operator != null?operators.indexOf(operator):data.getSelectedOperator();
+        if(selectedOperator < 0)
+            throw new IllegalArgumentException("Unknown operator \""+operator+"\", expected one of "+operators+".");
+        IntFunction<ColorNeuralNetwork.BWColor> labeler =
+                AutoTrainer.thresholdLabeler(rgbThreashold, selectedOperator == 0);
+        System.out.println("Rule : black if r+g+b "+operators.get(selectedOperator)+" "+rgbThreashold+".");
+
+        long toTrain = samples != null?samples:DEFAULT_SAMPLES;
+        if(toTrain > 0)
+            train(colorBrain, toTrain, labeler);
+        if(evaluation > 0)
+            evaluate(colorBrain, labeler);
+
+        File target = save != null?save:load;
+        if(target != null && toTrain > 0 || save != null){
+            new NnsFile(colorBrain, data.isLearnMode(), data.isCheckedAutotrain(), rgbThreashold,
+                    data.getTrainingTimes(), selectedOperator, operators).write(target);
+            System.out.println("Saved "+target.getPath()+".");
+        }
+    }
+
+    /**
+     * Autotrains the network and prints the throughput.
+     * @param colorBrain {@link ColorNeuralNetwork} to train.
+     * @param toTrain Number of samples.
+     * @param labeler Rule giving the expected {@link ColorNeuralNetwork.BWColor colour} of a colour packed as 0xRRGGBB.
+     * @throws InterruptedException if the training is interrupted.
+     */
+    private void train(ColorNeuralNetwork colorBrain, long toTrain, IntFunction<ColorNeuralNetwork.BWColor> labeler)
+            throws InterruptedException {
+        TrainingSampleSource defaultSource = TrainingSampleSource.defaultSource();
+        TrainingSampleSource source = TrainingSampleSource.of(sampleKind != null?sampleKind:defaultSource.getKind(),
+                seed != null?seed:defaultSource.getSeed());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "autotrain-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            AutoTrainer trainer = new AutoTrainer(colorBrain, mode, executor, threads,
+                    AutoTrainer.DEFAULT_SYNC_INTERVAL, source);
+            System.out.println("Training "+toTrain+" samples in "+trainer.getMode()+" mode with "
+                    +trainer.getWorkers()+" thread(s) on "+source+" colours...");
+            long start = System.nanoTime();
+            trainer.train(toTrain, labeler, done -> {});
+            double seconds = (System.nanoTime()-start)/1e9;
+            System.out.println(String.format(Locale.ROOT, "Trained %d samples in %.3f s : %.0f samples/s.",
+                    trainer.getTrained(), seconds, trainer.getTrained()/seconds));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Prints the share of colours the network guesses as the rule does, and the throughput of the guesses.
+     * When {@link #evaluation} reaches the 256^3 colours, each one is evaluated once, otherwise random ones are.
+     * @param colorBrain {@link ColorNeuralNetwork} to evaluate.
+     * @param labeler Rule giving the expected {@link ColorNeuralNetwork.BWColor colour} of a colour packed as 0xRRGGBB.
+     */
+    private void evaluate(ColorNeuralNetwork colorBrain, IntFunction<ColorNeuralNetwork.BWColor> labeler){
+        boolean exhaustive = evaluation >= 1<<24;
+        long count = exhaustive?1<<24:evaluation;
+        SplittableRandom random = new SplittableRandom(seed != null?seed:0);
+        int[] colours = new int[EVALUATION_BATCH];
+        byte[] guesses = new byte[EVALUATION_BATCH];
+        long correct = 0, guessNanos = 0;
+        for (long done = 0; done< count;){
+            int n = (int)Math.min(EVALUATION_BATCH, count-done);
+            for (int i = 0; i< n; i++)
+                colours[i] = exhaustive?(int)(done+i):random.nextInt(1<<24);
+            long start = System.nanoTime();
+            colorBrain.guessBatch(colours, 0, n, guesses, null);
+            guessNanos+= System.nanoTime()-start;
+            for (int i = 0; i< n; i++)
+                if(guesses[i] == labeler.apply(colours[i]).ordinal())
+                    correct++;
+            done+= n;
+        }
+        System.out.println(String.format(Locale.ROOT, "Accuracy : %.4f %% over %d %s colours, %.0f guesses/s.",
+                correct*100.0/count, count, exhaustive?"(all)":"random", count*1e9/Math.max(1, guessNanos)));
+    }
+
+    /**
+     * Prints the options.
+     */
+    private static void printHelp(){
+        System.out.println(String.join(System.lineSeparator(),
+                "Usage : java -cp <classes> com.wholebrain.colorpredictor.CommandLine [options]",
+                "  --load <file.nns>      Network and settings to start from. A new network otherwise.",
+                "  --save <file.nns>      Where to save the network. The loaded file by default, if trained.",
+                "  --samples <n>          Number of samples to autotrain ("+DEFAULT_SAMPLES+" by default, 0 for none).",
+                "  --threads <n>          Number of training threads (the number of cores by default).",
+                "  --mode <mode>          sequential, synchronous or hogwild (colorpredictor.autotrain by default).",
+                "  --source <kind>        random, sobol or halton colours (colorpredictor.samples by default).",
+                "  --seed <n>             Seed of the colours and of a new network, to reproduce a run (random by default).",
+                "  --threshold <n>        Threashold of r+g+b (the loaded one, or "+DEFAULT_THREASHOLD+").",
+                "  --operator <op>        >= or <, black when r+g+b op threshold (the loaded one, or >=).",
+                "  --precision <p>        double or float, for a new network.",
+                "  --activation <a>       sigmoid, tanh, relu or leaky_relu hidden layer, for a new network.",
+                "  --evaluate <n>         Number of colours to evaluate ("+DEFAULT_EVALUATION+" by default,"
+                        +" 16777216 for all, 0 for none)."));
+    }
+
+    /**
+     * Reads the number given to an option.
+     * @param option Name of the option, for the message of the error.
+     * @param value Value given to the option.
+     * @return {@link long}.
+     * @throws IllegalArgumentException if the value isn't a number.
+     */
+    private static long parseLong(String option, String value){
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option+" expects a number, got \""+value+"\".");
+        }
+    }
+
+    /**
+     * @see #parseLong(String, String)
+     * @throws IllegalArgumentException if the value isn't a positive number.
+     */
+    private static long parsePositive(String option, String value){
+        long number = parseLong(option, value);
+        if(number < 0)
+            throw new IllegalArgumentException(option+" can't be negative.");
+        return number;
+    }
+
+    /**
+     * Reads the constant named by the value given to an option, whatever its case.
+     * @param option Name of the option, for the message of the error.
+     * @param value Value given to the option.
+     * @param values Possible constants.
+     * @return The constant named.
+     * @throws IllegalArgumentException if no constant has this name.
+     */
+    private static <E extends Enum<E>> E parseEnum(String option, String value, E[] values){
+        for (E e : values)
+            if(e.name().equalsIgnoreCase(value.trim()))
+                return e;
+        throw new IllegalArgumentException("Unknown value \""+value+"\" for "+option+".");
+    }
+}
@@ -1,6 +1,10 @@
 package com.wholebrain.colorpredictor;
 
+import com.wholebrain.colorpredictor.NeuralNetwork.AutoTrainer;
 import com.wholebrain.colorpredictor.NeuralNetwork.ColorNeuralNetwork;
+import com.wholebrain.colorpredictor.NeuralNetwork.TrainingSampleSource;
+import com.wholebrain.colorpredictor.NeuralNetwork.TrainingService;
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.event.EventType;
 import javafx.fxml.FXML;
@@ -31,7 +35,6 @@ import java.text.DecimalFormat;
 import java.text.ParsePosition;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 import java.util.ResourceBundle;
 
 
@@ -40,7 +43,7 @@ public class Controller implements Initializable, FxObserver {
     @FXML public Pane color_pane;
     @FXML public Circle black_circle, white_circle;
     @FXML public Label training_label, certainty_label;
-    @FXML public Button learn_button, predict_button, autotrain_button;
+    @FXML public Button learn_button, predict_button, autotrain_button, pause_button, cancel_button;
     @FXML public CheckBox autotrain_checkbox;
     @FXML public ComboBox<String> infsup_combobox;
     @FXML public TextField rgbthreshold_textfield, trainingtimes_textfield;
@@ -52,8 +55,10 @@ public class Controller implements Initializable, FxObserver {
     private Stage primaryStage;
 
     private int r, g,b;
+    private final TrainingSampleSource.Sampler colorSampler = TrainingSampleSource.defaultSource().sampler(0);
     private boolean isGuessedBlack = true;
-    private String trainingText;
+    private final TrainingService trainingService = new TrainingService();
+    private final AnimationTimer progressTimer = new ProgressTimer();
 
     /**
      * Toggle between "Predict" and "Learn" modes.
@@ -116,16 +121,71 @@ public class Controller implements Initializable, FxObserver {
     }
 
     /**
-     * Launches the Autotrain in another thread.
+     * Launches the Autotrain in the background, through the {@link TrainingService training service}.
+     * Its progression is then displayed by the {@link ProgressTimer progress timer}.
      */
     @FXML
     public void on_autotrain_launch() {
-        CustomProgress train = new CustomProgress(model.getTrainingTimes().get());
-        Thread trainer = new Thread(train);
-        trainer.start();
+        if(trainingService.isActive())
+            return;
+        int iterations = model.getTrainingTimes().get();
+        AutoTrainer trainer = new AutoTrainer(model.getColorbrain());
+        updateInfos("Autotraining "+iterations+" times in "+trainer.getMode()+" mode with "
+                +trainer.getWorkers()+" worker(s) on "+trainer.getSource()+" colours.");
+
+        hideAll(true);
+        training_label.setText("Training...");
+        training_label.setVisible(true);
+        pause_button.setText("Pause");
+        pause_button.setVisible(true);
+        cancel_button.setVisible(true);
+        trainingService.start(trainer, iterations, AutoTrainer.thresholdLabeler(model.getRgbThreashold().get(),
+                model.getSelectedOperator().get() == 0));
+        progressTimer.start();
+        model.setTraining(true);
         model.setFileModified();
     }
 
+    /**
+     * Pauses the Autotrain, or resumes it if paused.
+     */
+    @FXML
+    public void on_autotrain_pause() {
+        if(trainingService.getState() == TrainingService.State.PAUSED){
+            trainingService.resume();
+            pause_button.setText("Pause");
+        }else{
+            trainingService.pause();
+            pause_button.setText("Resume");
+        }
+    }
+
+    /**
+     * Cancels the Autotrain. What has already been trained is kept.
+     */
+    @FXML
+    public void on_autotrain_cancel() {
+        trainingService.cancel();
+        cancel_button.setDisable(true);
+        pause_button.setDisable(true);
+    }
+
+    /**
+     * Restores the window once the Autotrain is over.
+     * @param state {@link TrainingService.State} in which the Autotrain ended.
+     */
+    private void autotrainEnded(TrainingService.State state){
+        model.setTraining(false);
+        updateInfos("Autotraining "+state.name().toLowerCase()+" after "+trainingService.getTrained()+" samples, "
+                +Math.round(trainingService.getSamplesPerSecond())+" samples/s.");
+        pause_button.setVisible(false);
+        cancel_button.setVisible(false);
+        pause_button.setDisable(false);
+        cancel_button.setDisable(false);
+        hideAll(false);
+        training_label.setVisible(false);
+    }
+
     /**
      * Tells the model to generate a new {@link ColorNeuralNetwork color neural networkk},
      * then picks a new colour.
@@ -290,15 +350,15 @@ public class Controller implements Initializable, FxObserver {
     }
 
     /**
-     * Picks and stores a random colour.
+     * Picks and stores the next colour of the {@link TrainingSampleSource sample source}.
      * @param updateColorPane If this {@link boolean} is true, the colour panel will be updated
      *                       to be filled with this new colour.
      */
     private void pickNextColor(boolean updateColorPane){
-
-        r = new Random().nextInt(256);
-        g = new Random().nextInt(256);
-        b = new Random().nextInt(256);
+        int rgb = colorSampler.nextRgb();
+        r = (rgb>>16)&0xFF;
+        g = (rgb>>8)&0xFF;
+        b = rgb&0xFF;
 
         if(updateColorPane) {
             String colorString = intToHexString(r)+intToHexString(g)+intToHexString(b);
@@ -346,10 +406,12 @@ public class Controller implements Initializable, FxObserver {
     /**
      * Orders the {@link ColorNeuralNetwork color neural network} to backpropagate.
      * The inputs are the currently displayed colour RGB values. The target is informed as parameter of the method.
+     * The result is published at once, so that the next guess takes it into account.
      * @param color Target {@link ColorNeuralNetwork.BWColor colour}.
      */
     private void learn(ColorNeuralNetwork.BWColor color){
         model.getColorbrain().train(r,g,b,color);
+        model.getColorbrain().publish();
     }
 
     /**
@@ -436,6 +498,24 @@ public class Controller implements Initializable, FxObserver {
         infsup_combobox.getSelectionModel().select(index);
     }
 
+    /**
+     * Informs of the end of the save of a {@link File file}, or shows why it couldn't be saved.
+     * @param file Saved {@link File file}.
+     * @param error Exception thrown by the save, or null if the file was saved.
+     */
+    @Override
+    public void updateSavedFile(File file, IOException error) {
+        if(error == null) {
+            updateInfos("Saved into \""+file.getPath()+"\".");
+            return;
+        }
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Unable to save the file.");
+        alert.setHeaderText("File \""+file.toString()+"\" couldn't be saved.");
+        alert.setContentText(error.getMessage()+"\nThe previous content of the file is untouched.");
+        alert.showAndWait();
+    }
+
     /**
      * Checks if the {@link File current file} datas were modified since its last access.
      * If so, shows a {@link Dialog alert dialog} to inform that the modifications won't be stored.
@@ -458,8 +538,10 @@ public class Controller implements Initializable, FxObserver {
 
         if (alert.getResult().equals(yesButtonType))
             return true;
-        else if(alert.getResult().equals(saveButton))
+        else if(alert.getResult().equals(saveButton)) {
             on_save();
+            model.awaitSaves();
+        }
         return model.isNotModified();
     }
 
@@ -482,39 +564,38 @@ public class Controller implements Initializable, FxObserver {
     }
 
     /**
-     * {@link Runnable} used to update the {@link Label label} that describes the current progression
-     * of the autotraining.
+     * {@link AnimationTimer Timer} reading the progression of the {@link TrainingService training service}
+     * at most every tenth of a second, to update the {@link Label label} that describes it,
+     * and restoring the window once the Autotrain is over. It runs on the JavaFX thread,
+     * so that the training threads never push anything to it.
      */
-    private class CustomProgress implements Runnable {
-        private int iterations;
-        CustomProgress(int n){
-            this.iterations=n;
+    private class ProgressTimer extends AnimationTimer {
+        private static final long REFRESH_PERIOD_NS = 100_000_000L;
+        private long lastRefresh, lastTrained = -1;
+
+        @Override
+        public void start() {
+            lastRefresh = 0;
+            lastTrained = -1;
+            super.start();
         }
 
         @Override
-        public void run() {
-            training_label.setVisible(true);
-            hideAll(true);
-            ColorNeuralNetwork.BWColor[] answers = new ColorNeuralNetwork.BWColor[2];
-            int c = model.getSelectedOperator().get();
-            answers[c] = ColorNeuralNetwork.BWColor.BLACK;
-            answers[(c+1)%2] = ColorNeuralNetwork.BWColor.WHITE;
-            int trainingPerLoop = iterations /200,
-                    nextRefresh = trainingPerLoop;
-            for (int i =0; i<iterations; i++) {
-                ColorNeuralNetwork.BWColor trainedColor = (r + g + b >= 384) ?
-                        answers[0] : answers[1];
-                learn(trainedColor);
-                if(i>nextRefresh) {
-                    trainingText = String.format("Training... %,d / %,d (%d%%)",i,iterations,(i*100L/iterations));
-                    Platform.runLater(() -> training_label.setText(trainingText));
-                    nextRefresh+=trainingPerLoop;
-                }
-//                updateInfos("Autotrained as  : " + trainedColor);
-                pickNextColor(false);
+        public void handle(long now) {
+            if(!trainingService.isActive()){
+                stop();
+                autotrainEnded(trainingService.getState());
+                return;
             }
-            hideAll(false);
-            training_label.setVisible(false);
+            if(now-lastRefresh < REFRESH_PERIOD_NS)
+                return;
+            lastRefresh = now;
+            long done = trainingService.getTrained(), iterations = trainingService.getSamples();
+            if(done == lastTrained)
+                return;
+            lastTrained = done;
+            training_label.setText(String.format("Training... %,d / %,d (%d%%)",done,iterations,
+                    iterations>0?done*100L/iterations:100));
         }
     }
 
@@ -1,9 +1,11 @@
 package com.wholebrain.colorpredictor;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
 
 public interface FxObserver {
     void updateRecentFiles(List<File> files);
     void updateSelectedOperator(int index);
+    void updateSavedFile(File file, IOException error);
 }
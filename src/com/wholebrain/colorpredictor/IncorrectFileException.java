@@ -7,4 +7,7 @@ public class IncorrectFileException extends Exception{
         System.err.println("`"+file.getPath()+"` is not a readable file.");
     }
     IncorrectFileException(){}
+    IncorrectFileException(String message){
+        super(message);
+    }
 }
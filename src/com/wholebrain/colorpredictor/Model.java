@@ -1,6 +1,7 @@
 package com.wholebrain.colorpredictor;
 
 import com.wholebrain.colorpredictor.NeuralNetwork.ColorNeuralNetwork;
+import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleIntegerProperty;
@@ -17,10 +18,15 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -37,7 +43,7 @@ public class Model {
     private int maxTrainingTimes = 65000000,
     maxThreashold = 767;
     // Communication attributes
-    private List<String> operators = new ArrayList<>(Arrays.asList(">=","<"));
+    private List<String> operators = new ArrayList<>(NnsFile.DEFAULT_OPERATORS);
     private List<FxObserver> observers = new ArrayList<>();
     // Configuration attributes
     private File CONFIG = new File("config.nnc");
@@ -45,6 +51,17 @@ public class Model {
     private File currentFile = null;
     private List<File> recentFiles = new ArrayList<>();
     private boolean isFileModified = false;
+    // Incremented by each modification, to know if the file was modified while it was being saved.
+    private int modifications = 0;
+    // True while an autotraining changes the weights, which are then never entirely saved.
+    private boolean training = false;
+    // Saves the files one after the other, off the FX thread, and keeps their ends until the FX thread handles them.
+    private final ExecutorService saver = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "nns-save");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Queue<Runnable> savedFiles = new ConcurrentLinkedQueue<>();
 
     Model(){
 
@@ -69,7 +86,7 @@ public class Model {
             if (CONFIG.createNewFile())
                 saveConfig();
             else {
-                ois = new ObjectInputStream(
+                ois = NnsFile.objectInputStream(
                         new BufferedInputStream(
                                 new FileInputStream(CONFIG)
                         )
@@ -105,9 +122,17 @@ public class Model {
     }
 
     /**
-     * Closing the model means saving its configuration inside a stored config file.
+     * Closing the model means waiting for the files being saved, then saving its configuration inside a stored config file.
      */
     void close(){
+        saver.shutdown();
+        try {
+            if(!saver.awaitTermination(1, TimeUnit.MINUTES))
+                System.out.println("The file is still being saved.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        handleSavedFiles();
         /*try {
             CONFIG.createNewFile();
         } catch (IOException e) {
@@ -152,6 +177,7 @@ public class Model {
      */
     void setFileModified(){
         this.isFileModified =true;
+        modifications++;
         modifyName();
     }
 
@@ -224,6 +250,16 @@ public class Model {
             observer.updateRecentFiles(recentFiles);
     }
 
+    /**
+     * Notifies all the {@link FxObserver observers} of the end of the save of a {@link File file}.
+     * @param file Saved {@link File file}.
+     * @param error Exception thrown by the save, or null if the file was saved.
+     */
+    private void notifySavedFile(File file, IOException error){
+        for (FxObserver observer : observers)
+            observer.updateSavedFile(file, error);
+    }
+
     /**
      * Notifies all the {@link FxObserver observers} of the change of inequality used
      * to autotrain the {@link ColorNeuralNetwork color neural network}.
@@ -371,13 +407,8 @@ public class Model {
             System.out.println("Trying to LOAD a null file.");
             return;
         }
-        ObjectInputStream ois = null;
-
         try {
-            ois = new ObjectInputStream(
-                    new BufferedInputStream(
-                            new FileInputStream(file)));
-            loadData(ois);
+            loadData(NnsFile.read(file));
 
             System.out.println("    Loading ::");
             System.out.println("Mode = "+(learnMode.get()? "Learn":"Predict"));
@@ -401,71 +432,115 @@ public class Model {
             recentFiles.remove(file);
             notifyRecentFiles();
             alert.showAndWait();
-        } finally {
-            if(ois!=null) {
-                try {
-                    ois.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
         }
-
-
     }
 
     /**
      * Reads a {@link ObjectInputStream} and sets the attributes.
      * @param ois {@link ObjectInputStream}
      * @throws IncorrectFileException Custom Exception about the access of the nns {@link File files}.
+     * @see NnsFile for the content of the files.
      */
     private void loadData(ObjectInputStream ois) throws IncorrectFileException {
-        try {
-            colorBrain=(ColorNeuralNetwork)ois.readObject();
-            learnMode.set(ois.readBoolean());
-            checkedAutotrain.set(ois.readBoolean());
-            rgbThreashold.set(ois.readInt());
-            trainingTimes.set(ois.readInt());
-//            selectedOperator.setValue(ois.readInt());
-            selectedOperator.set(ois.readInt());
-            int nbOperators = ois.readInt();
-            operators = new ArrayList<>();
-            for (int i = 0; i<nbOperators; i++)
-                operators.add((String)ois.readObject());
-        } catch (Exception e) {
-            throw new IncorrectFileException();
-        }
+        loadData(NnsFile.read(ois));
+    }
+
+    /**
+     * Sets the attributes from the content of a nns file.
+     * @param data {@link NnsFile} read.
+     */
+    private void loadData(NnsFile data){
+        colorBrain = data.getColorBrain();
+        learnMode.set(data.isLearnMode());
+        checkedAutotrain.set(data.isCheckedAutotrain());
+        rgbThreashold.set(data.getRgbThreashold());
+        trainingTimes.set(data.getTrainingTimes());
+        selectedOperator.set(data.getSelectedOperator());
+        operators = new ArrayList<>(data.getOperators());
     }
 
     /**
-     * Saved the current attributes inside the {@link File file}.
+     * Saves the current attributes inside the {@link File file}, without freezing the window nor stalling the training.
+     * The settings are taken at once by the FX thread, along with the version of the last published snapshot of the
+     * {@link ColorNeuralNetwork color neural network}. Another thread then writes them as told by {@link NnsFile#write(File)},
+     * with the snapshot published last when the write starts, which is this version unless a new one was published since.
+     * The {@link FxObserver observers} are notified on the FX thread once the file is saved, or couldn't be.
      * @param file {@link File} to store the datas into.
      */
     void saveData(File file){
+        System.out.println("    Saving ::");
+        printSettings();
+        int savedVersion = colorBrain.getSnapshotVersion();
+        NnsFile data = toNnsFile();
+        int savedModifications = modifications;
+        saver.execute(() -> {
+            IOException error = null;
+            try {
+                data.write(file);
+            } catch (IOException e) {
+                error = e;
+            }
+            IOException result = error;
+            savedFiles.add(() -> handleSavedFile(file, data.getColorBrain(), savedModifications, savedVersion, result));
+            Platform.runLater(this::handleSavedFiles);
+        });
+    }
 
-        ObjectOutputStream oos = null;
-
+    /**
+     * Waits for the files being saved, then handles the ends of their saves, so that {@link #isNotModified()}
+     * tells if they are saved. Called by the FX thread when an action needs the file to be saved first.
+     */
+    void awaitSaves(){
         try {
-            oos = new ObjectOutputStream(
-                    new BufferedOutputStream(
-                            new FileOutputStream(file)));
-            saveData(oos);
-
-        } catch (IOException e) {
+            saver.submit(() -> {}).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
             e.printStackTrace();
-        } finally{
-            if (oos != null){
-                try {
-                    oos.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
         }
+        handleSavedFiles();
+    }
+
+    /**
+     * Tells whether an autotraining is changing the weights. While it does, a save never marks the file as saved.
+     * @param training True when an autotraining starts, false once it is over.
+     */
+    void setTraining(boolean training){
+        this.training = training;
+    }
 
-        setCurrentFile(file);
-        updateRecentFiles(file);
-        System.out.println("Path = "+currentFile.getPath());
+    /**
+     * Handles, on the FX thread, the ends of the saves not handled yet.
+     */
+    private void handleSavedFiles(){
+        Runnable savedFile;
+        while ((savedFile = savedFiles.poll()) != null)
+            savedFile.run();
+    }
+
+    /**
+     * Handles the end of a save : the saved {@link File file} becomes the current one,
+     * still modified if it was modified while it was being saved, if an autotraining is still changing the weights,
+     * or if a new snapshot was published since the save started,
+     * unless another {@link ColorNeuralNetwork color neural network} was loaded or created meanwhile.
+     * @param file Saved {@link File file}.
+     * @param savedBrain {@link ColorNeuralNetwork} saved.
+     * @param savedModifications Number of modifications when the save started.
+     * @param savedVersion Version of the snapshot when the save started.
+     * @param error Exception thrown by the save, or null if the file was saved.
+     */
+    private void handleSavedFile(File file, ColorNeuralNetwork savedBrain, int savedModifications, int savedVersion,
+                                 IOException error){
+        if(error != null)
+            error.printStackTrace();
+        else {
+            if(savedBrain == colorBrain)
+                setCurrentFile(file, isFileModified && (training || modifications != savedModifications
+                        || colorBrain.getSnapshotVersion() != savedVersion));
+            updateRecentFiles(file);
+            System.out.println("Path = "+file.getPath());
+        }
+        notifySavedFile(file, error);
     }
 
     /**
@@ -475,17 +550,25 @@ public class Model {
      */
     private void saveData(ObjectOutputStream oos) throws IOException {
         System.out.println("    Saving ::");
-        oos.writeObject(colorBrain);
-        oos.writeBoolean(learnMode.get());
+        toNnsFile().write(oos);
+        printSettings();
+    }
+
+    /**
+     * Returns the current attributes as the content of a nns file.
+     * @return A new {@link NnsFile}.
+     */
+    private NnsFile toNnsFile(){
+        return new NnsFile(colorBrain, learnMode.get(), checkedAutotrain.get(), rgbThreashold.get(), trainingTimes.get(),
+                selectedOperator.get(), operators);
+    }
+
+    /**
+     * Prints the saved attributes.
+     */
+    private void printSettings(){
         System.out.println("Mode = "+(learnMode.get()? "Learn":"Predict"));
-        oos.writeBoolean(checkedAutotrain.get());
         System.out.println("Autotrain = "+checkedAutotrain.get());
-        oos.writeInt(rgbThreashold.get());
-        oos.writeInt(trainingTimes.get());
-        oos.writeInt(selectedOperator.getValue());
-        int nbOperators = operators.size();
-        oos.writeInt(nbOperators);
-        for (String operator : operators) oos.writeObject(operator);
         System.out.println("Operator = "+operators.get(selectedOperator.get()));
         System.out.println("ThreashHold = "+rgbThreashold.get());
         System.out.println("Training "+trainingTimes.get()+" times\n");
@@ -0,0 +1,178 @@
+package com.wholebrain.colorpredictor.NeuralNetwork;
+
+/**
+ * Activation functions that a layer of a {@link NeuralNetwork neural network} can use.
+ * Each one works on whole arrays at once, so that the loops only ever call one function and can be compiled tightly,
+ * and each one computes its derivative from the outputs of the layer, which are kept by the propagation.
+ * An activation is saved by its {@link #getId() id}, which never changes.
+ */
+public enum Activation {
+    /**
+     * 1/(1+exp(-x)), computed by the {@link Sigmoid sigmoid} chosen at launch. Outputs in ]0, 1[.
+     */
+    SIGMOID(0){
+        @Override
+        void apply(double[] in, double[] out){
+            if(in != out)
+                System.arraycopy(in, 0, out, 0, in.length);
+            Sigmoid.SELECTED.map(out, 0, in.length);
+        }
+
+        @Override
+        void derivative(double[] outputs, double[] errors, double[] ret){
+            for (int i = 0; i< outputs.length; i++)
+                ret[i] = outputs[i]*(1.0-outputs[i]) * errors[i];
+        }
+
+        @Override
+        void apply(float[] in, float[] out){
+            if(in != out)
+                System.arraycopy(in, 0, out, 0, in.length);
+            Sigmoid.SELECTED.map(out, 0, in.length);
+        }
+
+        @Override
+        void derivative(float[] outputs, float[] errors, float[] ret){
+            for (int i = 0; i< outputs.length; i++)
+                ret[i] = outputs[i]*(1f-outputs[i]) * errors[i];
+        }
+    },
+    /**
+     * Hyperbolic tangent. Outputs in ]-1, 1[.
+     */
+    TANH(1){
+        @Override
+        void apply(double[] in, double[] out){
+            for (int i = 0; i< in.length; i++)
+                out[i] = Math.tanh(in[i]);
+        }
+
+        @Override
+        void derivative(double[] outputs, double[] errors, double[] ret){
+            for (int i = 0; i< outputs.length; i++)
+                ret[i] = (1.0-outputs[i]*outputs[i]) * errors[i];
+        }
+
+        @Override
+        void apply(float[] in, float[] out){
+            for (int i = 0; i< in.length; i++)
+                out[i] = (float)Math.tanh(in[i]);
+        }
+
+        @Override
+        void derivative(float[] outputs, float[] errors, float[] ret){
+            for (int i = 0; i< outputs.length; i++)
+                ret[i] = (1f-outputs[i]*outputs[i]) * errors[i];
+        }
+    },
+    /**
+     * max(0, x). Outputs in [0, +inf[.
+     */
+    RELU(2){
+        @Override
+        void apply(double[] in, double[] out){
+            for (int i = 0; i< in.length; i++)
+                out[i] = Math.max(0.0, in[i]);
+        }
+
+        @Override
+        void derivative(double[] outputs, double[] errors, double[] ret){
+            for (int i = 0; i< outputs.length; i++)
+                ret[i] = outputs[i]>0.0?errors[i]:0.0;
+        }
+
+        @Override
+        void apply(float[] in, float[] out){
+            for (int i = 0; i< in.length; i++)
+                out[i] = Math.max(0f, in[i]);
+        }
+
+        @Override
+        void derivative(float[] outputs, float[] errors, float[] ret){
+            for (int i = 0; i< outputs.length; i++)
+                ret[i] = outputs[i]>0f?errors[i]:0f;
+        }
+    },
+    /**
+     * x when x is positive, {@value #LEAKY_SLOPE}*x otherwise, so that a neurone never stops learning.
+     */
+    LEAKY_RELU(3){
+        @Override
+        void apply(double[] in, double[] out){
+            for (int i = 0; i< in.length; i++)
+                out[i] = in[i]>0.0?in[i]:LEAKY_SLOPE*in[i];
+        }
+
+        @Override
+        void derivative(double[] outputs, double[] errors, double[] ret){
+            for (int i = 0; i< outputs.length; i++)
+                ret[i] = outputs[i]>0.0?errors[i]:LEAKY_SLOPE*errors[i];
+        }
+
+        @Override
+        void apply(float[] in, float[] out){
+            for (int i = 0; i< in.length; i++)
+                out[i] = in[i]>0f?in[i]:(float)LEAKY_SLOPE*in[i];
+        }
+
+        @Override
+        void derivative(float[] outputs, float[] errors, float[] ret){
+            for (int i = 0; i< outputs.length; i++)
+                ret[i] = outputs[i]>0f?errors[i]:(float)LEAKY_SLOPE*errors[i];
+        }
+    };
+
+    static final double LEAKY_SLOPE = 0.01;
+    private final int id;
+
+    Activation(int id){
+        this.id = id;
+    }
+
+    /**
+     * Returns the identifier under which the activation is saved.
+     * @return {@link int}.
+     */
+    public int getId(){
+        return id;
+    }
+
+    /**
+     * Returns the activation saved under an identifier.
+     * @param id Identifier returned by {@link #getId()}.
+     * @return The corresponding {@link Activation}.
+     * @throws IllegalArgumentException if no activation has this identifier.
+     */
+    public static Activation fromId(int id){
+        for (Activation activation : values())
+            if(activation.id == id)
+                return activation;
+        throw new IllegalArgumentException("ACTIVATION : Unknown activation id "+id+".");
+    }
+
+    /**
+     * Applies the activation to each cell of an array.
+     * @param in Array, as a double[], of the weighted sums of the neurones.
+     * @param out Array, as a double[], receiving the outputs. It can be the in array.
+     */
+    abstract void apply(double[] in, double[] out);
+
+    /**
+     * Multiplies term by term the errors by the derivative of the activation, computed from the outputs.
+     * Used to get the gradients of a layer.
+     * @param outputs Array, as a double[], of the outputs of the layer.
+     * @param errors Array, as a double[], of the errors of the layer.
+     * @param ret Array, as a double[], receiving the gradients. It can be one of the arrays.
+     */
+    abstract void derivative(double[] outputs, double[] errors, double[] ret);
+
+    /**
+     * @see #apply(double[], double[])
+     */
+    abstract void apply(float[] in, float[] out);
+
+    /**
+     * @see #derivative(double[], double[], double[])
+     */
+    abstract void derivative(float[] outputs, float[] errors, float[] ret);
+}
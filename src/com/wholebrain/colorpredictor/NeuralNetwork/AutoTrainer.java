@@ -0,0 +1,412 @@
+package com.wholebrain.colorpredictor.NeuralNetwork;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+import java.util.function.LongConsumer;
+
+/**
+ * Trains a {@link ColorNeuralNetwork color neural network} on colours read from a {@link TrainingSampleSource source},
+ * labelled by a given rule. The samples are numbered from 0, and each worker reads its own consecutive block of them
+ * through its own {@link TrainingSampleSource.Sampler sampler}, so that a seeded run always trains the same colours.
+ * Three {@link Mode modes} are available :
+ * - SEQUENTIAL : one sample after the other on the calling thread, as the autotraining always did.
+ * - SYNCHRONOUS : data-parallel. Each worker trains its own replica of the network on its own share of the samples.
+ *   Every {@link #getSyncInterval() sync interval} samples per worker, the replicas are averaged into the shared network,
+ *   which is the same as adding the mean of what each worker learnt, then copied back from it.
+ * - HOGWILD : each worker trains the shared network itself on its own share of the samples, without any lock.
+ *   Consistency guarantee : each weight is read and written with plain accesses, so a worker may read weights
+ *   partly updated by another one, and an update may be lost when two workers add to the same weight at once.
+ *   (On a 32 bits JVM, a double may even be read half written, see JLS 17.7.) The gradients of one sample
+ *   being small and rarely colliding, the training still converges. Every update is visible once train returns.
+ * Whatever the mode, the shared network publishes a new snapshot for the guesses at each synchronisation
+ * (at each report of the progress in HOGWILD mode), and once the training is over. In HOGWILD mode, the workers
+ * finish their current block of samples and wait while the snapshot is copied, so that it is never half written.
+ * The mode used by default is chosen with the system property {@code colorpredictor.autotrain} ("synchronous" by default).
+ *
+ * A training can be {@link #pause() paused}, {@link #resume() resumed} and {@link #cancel() cancelled} from any thread :
+ * the workers only check it between two blocks of {@link #getSyncInterval() sync interval} samples,
+ * and only add the samples of each block to the {@link #getTrained() counter} read by the progress displays,
+ * so that following a training costs nothing to its loops.
+ */
+public class AutoTrainer {
+    public static final int DEFAULT_SYNC_INTERVAL = 1024;
+    private static final long PROGRESS_PERIOD_MS = 100;
+    public enum Mode{
+        SEQUENTIAL,
+        SYNCHRONOUS,
+        HOGWILD
+    }
+
+    private final ColorNeuralNetwork network;
+    private final Mode mode;
+    private final ExecutorService executor;
+    private final int workers, syncInterval;
+    private final TrainingSampleSource source;
+    private final LongAdder trained = new LongAdder();
+    private final Object pauseLock = new Object();
+    private volatile boolean paused, cancelled;
+
+    /**
+     * Creates an {@link AutoTrainer} in the {@link Mode mode} and with the {@link TrainingSampleSource source}
+     * chosen at launch, using every core through the {@link ForkJoinPool#commonPool() common pool}.
+     * @param network {@link ColorNeuralNetwork} to train.
+     */
+    public AutoTrainer(ColorNeuralNetwork network){
+        this(network, defaultMode(), ForkJoinPool.commonPool(), Runtime.getRuntime().availableProcessors(),
+                DEFAULT_SYNC_INTERVAL, TrainingSampleSource.defaultSource());
+    }
+
+    /**
+     * Creates an {@link AutoTrainer}.
+     * @param network {@link ColorNeuralNetwork} to train.
+     * @param mode {@link Mode} of training.
+     * @param executor {@link ExecutorService} running the workers. Unused in SEQUENTIAL mode.
+     * @param workers Number of workers, each one training its own share of the samples.
+     * @param syncInterval Number of samples trained by each worker between two synchronisations.
+     *                     In HOGWILD mode, number of samples between two reports of the progress.
+     * @param source {@link TrainingSampleSource} of the colours.
+     */
+    public AutoTrainer(ColorNeuralNetwork network, Mode mode, ExecutorService executor, int workers, int syncInterval,
+                       TrainingSampleSource source){
+        if(workers < 1 || syncInterval < 1)
+            throw new IllegalArgumentException("AUTOTRAINER : "+workers+" workers and a sync interval of "+syncInterval
+                    +" are not possible.");
+        this.network = network;
+        this.mode = mode;
+        this.executor = executor;
+        this.workers = mode==Mode.SEQUENTIAL?1:workers;
+        this.syncInterval = syncInterval;
+        this.source = source;
+    }
+
+    /**
+     * Returns the {@link Mode mode} named by the system property {@code colorpredictor.autotrain},
+     * falling back to the synchronous one when unknown.
+     * @return {@link Mode}.
+     */
+    public static Mode defaultMode(){
+        String name = System.getProperty("colorpredictor.autotrain", "synchronous");
+        for (Mode mode : Mode.values())
+            if(mode.name().equalsIgnoreCase(name))
+                return mode;
+        Log.warn("AUTOTRAINER : Unknown mode \""+name+"\", using the synchronous one.");
+        return Mode.SYNCHRONOUS;
+    }
+
+    /**
+     * Returns the rule labelling the colours by the sum of their components, as set in the window :
+     * black when the sum is at least the threashold, or when it is below it.
+     * @param threashold Threashold of the sum of the components.
+     * @param blackAbove If true, the colours whose sum is at least the threashold are black, and the others white.
+     *                   If false, the other way round.
+     * @return The rule, giving the expected {@link ColorNeuralNetwork.BWColor colour} of a colour packed as 0xRRGGBB.
+     */
+    public static IntFunction<ColorNeuralNetwork.BWColor> thresholdLabeler(int threashold, boolean blackAbove){
+        ColorNeuralNetwork.BWColor above = blackAbove?ColorNeuralNetwork.BWColor.BLACK:ColorNeuralNetwork.BWColor.WHITE,
+                below = blackAbove?ColorNeuralNetwork.BWColor.WHITE:ColorNeuralNetwork.BWColor.BLACK;
+        return rgb -> ((rgb>>16)&0xFF) + ((rgb>>8)&0xFF) + (rgb&0xFF) >= threashold ? above : below;
+    }
+
+    /**
+     * Returns the {@link Mode mode} of training.
+     * @return {@link Mode}.
+     */
+    public Mode getMode(){
+        return mode;
+    }
+
+    /**
+     * Returns the number of workers.
+     * @return {@link int}.
+     */
+    public int getWorkers(){
+        return workers;
+    }
+
+    /**
+     * Returns the number of samples trained by each worker between two synchronisations.
+     * @return {@link int}.
+     */
+    public int getSyncInterval(){
+        return syncInterval;
+    }
+
+    /**
+     * Returns the {@link TrainingSampleSource source} of the colours.
+     * @return {@link TrainingSampleSource}.
+     */
+    public TrainingSampleSource getSource(){
+        return source;
+    }
+
+    /**
+     * Returns the number of samples trained since the {@link AutoTrainer} was created,
+     * updated after each block of {@link #getSyncInterval() sync interval} samples of each worker.
+     * @return {@link long}.
+     */
+    public long getTrained(){
+        return trained.sum();
+    }
+
+    /**
+     * Pauses the training : each worker stops after its current block of samples, until {@link #resume()}.
+     */
+    public void pause(){
+        paused = true;
+    }
+
+    /**
+     * Resumes a {@link #pause() paused} training.
+     */
+    public void resume(){
+        synchronized (pauseLock){
+            paused = false;
+            pauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * Cancels the training, even paused : each worker stops after its current block of samples,
+     * and {@link #train(long, IntFunction, LongConsumer) train} returns once the trained samples are published.
+     * Any later training of this {@link AutoTrainer} stops at once.
+     */
+    public void cancel(){
+        synchronized (pauseLock){
+            cancelled = true;
+            pauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * Tells if the training is paused.
+     * @return {@link boolean}.
+     */
+    public boolean isPaused(){
+        return paused;
+    }
+
+    /**
+     * Tells if the training has been cancelled.
+     * @return {@link boolean}.
+     */
+    public boolean isCancelled(){
+        return cancelled;
+    }
+
+    /**
+     * Checked before each block of samples : waits as long as the training is paused.
+     * @return False if the training has been cancelled.
+     * @throws InterruptedException if the calling thread is interrupted while paused.
+     */
+    private boolean proceed() throws InterruptedException {
+        if(paused)
+            synchronized (pauseLock){
+                while (paused && !cancelled)
+                    pauseLock.wait();
+            }
+        return !cancelled;
+    }
+
+    /**
+     * Trains the {@link ColorNeuralNetwork color neural network} on the colours of its source.
+     * @param samples Total number of samples to train, shared between the workers.
+     * @param labeler Gives the expected {@link ColorNeuralNetwork.BWColor colour} of a colour packed as 0xRRGGBB.
+     * @param progress Receives the total number of samples trained so far, after each synchronisation.
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the workers or paused.
+     */
+    public void train(long samples, IntFunction<ColorNeuralNetwork.BWColor> labeler, LongConsumer progress)
+            throws InterruptedException {
+        switch (mode){
+            case SEQUENTIAL:
+                trainSequential(samples, labeler, progress);
+                break;
+            case SYNCHRONOUS:
+                trainSynchronous(samples, labeler, progress);
+                break;
+            case HOGWILD:
+                trainHogwild(samples, labeler, progress);
+                break;
+        }
+    }
+
+    /**
+     * Trains the shared network itself, one sample after the other.
+     * @see #train(long, IntFunction, LongConsumer)
+     */
+    private void trainSequential(long samples, IntFunction<ColorNeuralNetwork.BWColor> labeler, LongConsumer progress)
+            throws InterruptedException {
+        TrainingSampleSource.Sampler sampler = source.sampler(0);
+        for (long done = 0; done< samples && proceed();){
+            long count = Math.min(syncInterval, samples-done);
+            trainColours(network, sampler, count, labeler);
+            done+= count;
+            progress.accept(done);
+        }
+        network.publish();
+    }
+
+    /**
+     * Trains one replica per worker and averages them into the shared network at each synchronisation.
+     * @see #train(long, IntFunction, LongConsumer)
+     */
+    private void trainSynchronous(long samples, IntFunction<ColorNeuralNetwork.BWColor> labeler, LongConsumer progress)
+            throws InterruptedException {
+        ColorNeuralNetwork[] replicas = new ColorNeuralNetwork[workers];
+        TrainingSampleSource.Sampler[] samplers = new TrainingSampleSource.Sampler[workers];
+        long[] remaining = new long[workers];
+        for (int w = 0; w< workers; w++){
+            replicas[w] = network.replicate();
+            samplers[w] = source.sampler(firstSample(samples, w));
+            remaining[w] = share(samples, w);
+        }
+
+        List<Callable<Void>> rounds = new ArrayList<>(workers);
+        for (int w = 0; w< workers; w++){
+            int worker = w;
+            rounds.add(() -> {
+                long count = Math.min(syncInterval, remaining[worker]);
+                trainColours(replicas[worker], samplers[worker], count, labeler);
+                remaining[worker]-= count;
+                return null;
+            });
+        }
+
+        for (long done = 0; done< samples && proceed();){
+            long before = sum(remaining);
+            for (Future<Void> future : executor.invokeAll(rounds)){
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("AUTOTRAINER : A worker failed.", e.getCause());
+                }
+            }
+            network.averageOf(replicas);
+            network.publish();
+            for (ColorNeuralNetwork replica : replicas)
+                replica.copyOf(network);
+            done+= before-sum(remaining);
+            progress.accept(done);
+        }
+    }
+
+    /**
+     * Lets every worker train the shared network at the same time, without any lock between them.
+     * The progress is reported by the calling thread every {@value #PROGRESS_PERIOD_MS} ms, along with a new snapshot
+     * published while no worker trains : each worker holds a shared lock while it trains a block of samples,
+     * and the calling thread takes the exclusive one to publish.
+     * @see #train(long, IntFunction, LongConsumer)
+     */
+    private void trainHogwild(long samples, IntFunction<ColorNeuralNetwork.BWColor> labeler, LongConsumer progress)
+            throws InterruptedException {
+        AtomicLong done = new AtomicLong();
+        ReadWriteLock quiescence = new ReentrantReadWriteLock();
+        Lock training = quiescence.readLock(), publishing = quiescence.writeLock();
+        List<Future<?>> futures = new ArrayList<>(workers);
+        for (int w = 0; w< workers; w++){
+            ColorNeuralNetwork shared = network.share();
+            long share = share(samples, w);
+            TrainingSampleSource.Sampler sampler = source.sampler(firstSample(samples, w));
+            futures.add(executor.submit(() -> {
+                for (long trainedShare = 0; trainedShare< share && proceed();){
+                    long count = Math.min(syncInterval, share-trainedShare);
+                    training.lock();
+                    try {
+                        trainColours(shared, sampler, count, labeler);
+                    } finally {
+                        training.unlock();
+                    }
+                    trainedShare+= count;
+                    done.addAndGet(count);
+                }
+                return null;
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures){
+                while (true){
+                    try {
+                        future.get(PROGRESS_PERIOD_MS, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        publishing.lock();
+                        try {
+                            network.publish();
+                        } finally {
+                            publishing.unlock();
+                        }
+                        progress.accept(done.get());
+                    } catch (ExecutionException e) {
+                        throw new IllegalStateException("AUTOTRAINER : A worker failed.", e.getCause());
+                    }
+                }
+            }
+        } finally {
+            for (Future<?> future : futures)
+                future.cancel(true);
+        }
+        network.publish();
+        progress.accept(done.get());
+    }
+
+    /**
+     * Returns the number of samples trained by a worker.
+     * @param samples Total number of samples.
+     * @param worker Index of the worker.
+     * @return {@link long}.
+     */
+    private long share(long samples, int worker){
+        return samples/workers + (worker < samples%workers?1:0);
+    }
+
+    /**
+     * Returns the index of the first sample trained by a worker, the workers training consecutive blocks of samples.
+     * @param samples Total number of samples.
+     * @param worker Index of the worker.
+     * @return {@link long}.
+     */
+    private long firstSample(long samples, int worker){
+        return worker*(samples/workers) + Math.min(worker, samples%workers);
+    }
+
+    /**
+     * Trains a {@link ColorNeuralNetwork color neural network} on a number of colours, then counts them.
+     * @param network {@link ColorNeuralNetwork} to train.
+     * @param sampler {@link TrainingSampleSource.Sampler} owned by the calling thread.
+     * @param count Number of colours.
+     * @param labeler Gives the expected {@link ColorNeuralNetwork.BWColor colour} of a colour packed as 0xRRGGBB.
+     */
+    private void trainColours(ColorNeuralNetwork network, TrainingSampleSource.Sampler sampler, long count,
+                              IntFunction<ColorNeuralNetwork.BWColor> labeler){
+        for (long i = 0; i< count; i++){
+            int rgb = sampler.nextRgb();
+            network.train((rgb>>16)&0xFF, (rgb>>8)&0xFF, rgb&0xFF, labeler.apply(rgb));
+        }
+        trained.add(count);
+    }
+
+    /**
+     * Returns the sum of the cells of an array.
+     * @param array {@link long[]}.
+     * @return {@link long}.
+     */
+    private static long sum(long[] array){
+        long ret = 0;
+        for (long value : array)
+            ret+= value;
+        return ret;
+    }
+}
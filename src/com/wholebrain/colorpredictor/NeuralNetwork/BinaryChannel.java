@@ -0,0 +1,319 @@
+package com.wholebrain.colorpredictor.NeuralNetwork;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Reads or writes the little-endian numbers of a binary file through one direct buffer,
+ * converting whole arrays at once, and keeps the CRC32 of every byte read or written so far.
+ * Arrays go through the buffer by blocks, so that any size of network is read or written at the speed of the disk.
+ * A {@link BinaryChannel} either reads or writes, and it is used by one thread at a time.
+ */
+public final class BinaryChannel {
+    private static final int BUFFER_SIZE = 1<<16;
+    private final ReadableByteChannel in;
+    private final WritableByteChannel out;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 crc = new CRC32();
+    // Index of the buffer up to which the bytes are counted in the CRC, and bytes read or written before the buffer.
+    private int checked;
+    private long flushed;
+
+    private BinaryChannel(ReadableByteChannel in, WritableByteChannel out){
+        this.in = in;
+        this.out = out;
+        if(in != null)
+            buffer.limit(0);
+    }
+
+    /**
+     * Creates a {@link BinaryChannel} reading a channel.
+     * @param in {@link ReadableByteChannel} to read.
+     * @return A new {@link BinaryChannel}.
+     */
+    public static BinaryChannel reading(ReadableByteChannel in){
+        return new BinaryChannel(in, null);
+    }
+
+    /**
+     * Creates a {@link BinaryChannel} writing into a channel. Nothing is written until {@link #flush()}.
+     * @param out {@link WritableByteChannel} to write into.
+     * @return A new {@link BinaryChannel}.
+     */
+    public static BinaryChannel writing(WritableByteChannel out){
+        return new BinaryChannel(null, out);
+    }
+
+    /**
+     * Returns the number of bytes read or written so far.
+     * @return {@link long}.
+     */
+    public long position(){
+        return flushed+buffer.position();
+    }
+
+    /**
+     * Returns the CRC32 of every byte read or written so far.
+     * @return {@link int}.
+     */
+    public int crc(){
+        updateCrc();
+        return (int)crc.getValue();
+    }
+
+    private void updateCrc(){
+        int position = buffer.position();
+        if(position == checked)
+            return;
+        ByteBuffer counted = buffer.duplicate();
+        counted.position(checked).limit(position);
+        crc.update(counted);
+        checked = position;
+    }
+
+    // WRITING
+
+    /**
+     * Makes room for some bytes in the buffer, writing its content into the channel if needed.
+     * @param bytes Number of bytes, at most the size of the buffer.
+     * @throws IOException Exception thrown when writing into the channel.
+     */
+    private void room(int bytes) throws IOException {
+        if(buffer.remaining() < bytes)
+            drain();
+    }
+
+    private void drain() throws IOException {
+        updateCrc();
+        flushed+= buffer.position();
+        buffer.flip();
+        while (buffer.hasRemaining())
+            out.write(buffer);
+        buffer.clear();
+        checked = 0;
+    }
+
+    /**
+     * Writes everything still held by the buffer into the channel.
+     * @throws IOException Exception thrown when writing into the channel.
+     */
+    public void flush() throws IOException {
+        drain();
+    }
+
+    /**
+     * Writes the lowest byte of an {@link int}.
+     */
+    public void putByte(int value) throws IOException {
+        room(1);
+        buffer.put((byte)value);
+    }
+
+    /**
+     * Writes an {@link int}.
+     */
+    public void putInt(int value) throws IOException {
+        room(4);
+        buffer.putInt(value);
+    }
+
+    /**
+     * Writes a {@link double}.
+     */
+    public void putDouble(double value) throws IOException {
+        room(8);
+        buffer.putDouble(value);
+    }
+
+    /**
+     * Writes an array of bytes.
+     */
+    public void putBytes(byte[] values) throws IOException {
+        for (int i = 0; i< values.length;){
+            room(1);
+            int n = Math.min(buffer.remaining(), values.length-i);
+            buffer.put(values, i, n);
+            i+= n;
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer, without moving its position.
+     */
+    public void putBytes(ByteBuffer values) throws IOException {
+        ByteBuffer source = values.duplicate();
+        while (source.hasRemaining()){
+            room(1);
+            ByteBuffer part = source.duplicate();
+            part.limit(part.position()+Math.min(buffer.remaining(), source.remaining()));
+            buffer.put(part);
+            source.position(part.position());
+        }
+    }
+
+    /**
+     * Writes an array of {@link int ints}.
+     */
+    public void putInts(int[] values) throws IOException {
+        for (int value : values)
+            putInt(value);
+    }
+
+    /**
+     * Writes an array of {@link double doubles}, by blocks.
+     */
+    public void putDoubles(double[] values) throws IOException {
+        for (int i = 0; i< values.length;){
+            room(Double.BYTES);
+            int n = Math.min(buffer.remaining()/Double.BYTES, values.length-i);
+            buffer.asDoubleBuffer().put(values, i, n);
+            buffer.position(buffer.position()+n*Double.BYTES);
+            i+= n;
+        }
+    }
+
+    /**
+     * Writes an array of {@link float floats}, by blocks.
+     */
+    public void putFloats(float[] values) throws IOException {
+        for (int i = 0; i< values.length;){
+            room(Float.BYTES);
+            int n = Math.min(buffer.remaining()/Float.BYTES, values.length-i);
+            buffer.asFloatBuffer().put(values, i, n);
+            buffer.position(buffer.position()+n*Float.BYTES);
+            i+= n;
+        }
+    }
+
+    /**
+     * Writes zeros until the {@link #position() position} is a multiple of an alignment.
+     * @param alignment Alignment in bytes.
+     * @throws IOException Exception thrown when writing into the channel.
+     */
+    public void padTo(int alignment) throws IOException {
+        while (position()%alignment != 0)
+            putByte(0);
+    }
+
+    // READING
+
+    /**
+     * Returns the number of bytes left to read, when the channel knows its size, like a file does.
+     * @return {@link long}, {@link Long#MAX_VALUE} if the size of the channel is unknown.
+     * @throws IOException Exception thrown when asking the size of the channel.
+     */
+    public long remaining() throws IOException {
+        if(!(in instanceof SeekableByteChannel))
+            return Long.MAX_VALUE;
+        SeekableByteChannel channel = (SeekableByteChannel)in;
+        return buffer.remaining()+Math.max(0, channel.size()-channel.position());
+    }
+
+    /**
+     * Makes sure that the buffer holds some bytes, reading the channel if needed.
+     * @param bytes Number of bytes, at most the size of the buffer.
+     * @throws IOException Exception thrown when reading the channel.
+     * @throws EOFException if the channel ends before.
+     */
+    private void need(int bytes) throws IOException {
+        if(buffer.remaining() >= bytes)
+            return;
+        updateCrc();
+        flushed+= buffer.position();
+        buffer.compact();
+        checked = 0;
+        while (buffer.position() < bytes)
+            if(in.read(buffer) < 0)
+                throw new EOFException("BINARY CHANNEL : The file is truncated.");
+        buffer.flip();
+    }
+
+    /**
+     * Reads an unsigned byte.
+     */
+    public int getByte() throws IOException {
+        need(1);
+        return buffer.get()&0xFF;
+    }
+
+    /**
+     * Reads an {@link int}.
+     */
+    public int getInt() throws IOException {
+        need(4);
+        return buffer.getInt();
+    }
+
+    /**
+     * Reads a {@link double}.
+     */
+    public double getDouble() throws IOException {
+        need(8);
+        return buffer.getDouble();
+    }
+
+    /**
+     * Fills an array of bytes.
+     */
+    public void getBytes(byte[] values) throws IOException {
+        for (int i = 0; i< values.length;){
+            need(1);
+            int n = Math.min(buffer.remaining(), values.length-i);
+            buffer.get(values, i, n);
+            i+= n;
+        }
+    }
+
+    /**
+     * Reads an array of {@link int ints}.
+     */
+    public int[] getInts(int count) throws IOException {
+        int[] values = new int[count];
+        for (int i = 0; i< count; i++)
+            values[i] = getInt();
+        return values;
+    }
+
+    /**
+     * Fills an array of {@link double doubles}, by blocks.
+     */
+    public void getDoubles(double[] values) throws IOException {
+        for (int i = 0; i< values.length;){
+            need(Double.BYTES);
+            int n = Math.min(buffer.remaining()/Double.BYTES, values.length-i);
+            buffer.asDoubleBuffer().get(values, i, n);
+            buffer.position(buffer.position()+n*Double.BYTES);
+            i+= n;
+        }
+    }
+
+    /**
+     * Fills an array of {@link float floats}, by blocks.
+     */
+    public void getFloats(float[] values) throws IOException {
+        for (int i = 0; i< values.length;){
+            need(Float.BYTES);
+            int n = Math.min(buffer.remaining()/Float.BYTES, values.length-i);
+            buffer.asFloatBuffer().get(values, i, n);
+            buffer.position(buffer.position()+n*Float.BYTES);
+            i+= n;
+        }
+    }
+
+    /**
+     * Skips the zeros written by {@link #padTo(int)}.
+     * @param alignment Alignment in bytes.
+     * @throws IOException Exception thrown when reading the channel, or when the padding isn't made of zeros.
+     */
+    public void skipTo(int alignment) throws IOException {
+        while (position()%alignment != 0)
+            if(getByte() != 0)
+                throw new IOException("BINARY CHANNEL : Unexpected padding at byte "+(position()-1)+".");
+    }
+}
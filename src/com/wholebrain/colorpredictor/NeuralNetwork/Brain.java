@@ -0,0 +1,116 @@
+package com.wholebrain.colorpredictor.NeuralNetwork;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * What a {@link ColorNeuralNetwork color neural network} needs from the neural network it trains,
+ * whatever the precision of the numbers the latter stores.
+ * Inputs and outputs are always exchanged as {@link double[] doubles}.
+ */
+interface Brain extends Serializable {
+
+    /**
+     * Propagate forward the {@link double[] inputs} to get the {@link double[] outputs}.
+     * @param inputs {@link double[]}.
+     * @return {@link double[] outputs}.
+     * @throws NonMatchingSizesException Custom Exception in the present package.
+     */
+    double[] forward(double[] inputs) throws NonMatchingSizesException;
+
+    /**
+     * Returns an {@link Evaluator evaluator} owning its own buffers, to propagate forward without allocating anything.
+     * @return A new {@link Evaluator}, to be used by one thread at a time.
+     */
+    Evaluator newEvaluator();
+
+    /**
+     * Returns a {@link BatchEvaluator batch evaluator} owning its own buffers, to propagate forward a whole batch
+     * of samples at once with matrix-matrix products, without allocating anything.
+     * @param batchSize Number of samples of each batch.
+     * @return A new {@link BatchEvaluator}, to be used by one thread at a time.
+     */
+    BatchEvaluator newBatchEvaluator(int batchSize);
+
+    /**
+     * Backpropagate the target outputs to tweak weights and biases.
+     * @param inputs {@link double[]}
+     * @param targets {@link double[]}
+     * @throws NonMatchingSizesException Custom Exception in the present package.
+     */
+    void back(double[] inputs, double[] targets) throws NonMatchingSizesException;
+
+    /**
+     * Backpropagates a whole batch of samples at once and applies one update, averaged over the batch.
+     * An empty batch changes nothing.
+     * @param inputs {@link double[][]} holding one row of inputs per sample.
+     * @param targets {@link double[][]} holding one row of targets per sample.
+     * @throws NonMatchingSizesException Custom Exception in the present package.
+     */
+    void backBatch(double[][] inputs, double[][] targets) throws NonMatchingSizesException;
+
+    /**
+     * Returns a deep copy, with the same architecture, weights and biases, that can be trained independently.
+     * @return A new {@link Brain} of the same precision.
+     */
+    Brain replicate();
+
+    /**
+     * Returns a {@link Brain} that reads and updates the very same weights and biases, but has its own buffers,
+     * so that another thread can train them at the same time. Nothing is locked : the threads may overwrite
+     * each other's updates.
+     * @return A new {@link Brain} of the same precision.
+     */
+    Brain share();
+
+    /**
+     * Overwrites the weights and biases with those of another {@link Brain} of the same architecture.
+     * @param source {@link Brain} to copy, obtained by {@link #replicate()}.
+     */
+    void copyOf(Brain source);
+
+    /**
+     * Overwrites the weights and biases with the mean of those of several {@link Brain brains} of the same architecture.
+     * When the replicas were all copied from this {@link Brain} then trained,
+     * it is the same as adding the mean of what they learnt.
+     * @param replicas {@link Brain brains} obtained by {@link #replicate()}.
+     */
+    void averageOf(Brain[] replicas);
+
+    /**
+     * Writes the architecture, the {@link Activation activations}, the learning rate and the layers
+     * in the binary layout of the nns files.
+     * @param out {@link BinaryChannel} to write into.
+     * @throws IOException Exception thrown when writing into the channel.
+     * @see ColorNeuralNetwork#write(BinaryChannel) for the layout.
+     */
+    void write(BinaryChannel out) throws IOException;
+
+    /**
+     * Forward propagation through the buffers of one thread.
+     */
+    interface Evaluator {
+        /**
+         * Propagate forward the {@link double[] inputs} to get the {@link double[] outputs}, without allocating anything.
+         * @param inputs {@link double[]}.
+         * @return {@link double[] outputs}, which is a buffer of the {@link Evaluator evaluator}
+         * that will be overwritten by its next use.
+         * @throws NonMatchingSizesException Custom Exception in the present package.
+         */
+        double[] evaluate(double[] inputs) throws NonMatchingSizesException;
+    }
+
+    /**
+     * Forward propagation of whole batches through the buffers of one thread.
+     */
+    interface BatchEvaluator {
+        /**
+         * Propagate forward a batch of samples to get their outputs, without allocating anything.
+         * @param inputs {@link double[]} holding one row of inputs per sample, as a row-major matrix.
+         * @return {@link double[] outputs}, holding one row of outputs per sample, which is a buffer
+         * of the {@link BatchEvaluator evaluator} that will be overwritten by its next use.
+         * @throws NonMatchingSizesException Custom Exception in the present package.
+         */
+        double[] evaluate(double[] inputs) throws NonMatchingSizesException;
+    }
+}
@@ -1,29 +1,129 @@
 package com.wholebrain.colorpredictor.NeuralNetwork;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
 
 /**
  * A class specifically design to use a {@link NeuralNetwork neural network} to guess if
  * a text is more readable in black or in white, onto a specific colour.
+ * The guesses are answered by an immutable snapshot of the {@link NeuralNetwork neural network},
+ * published by the training thread every {@link #getPublishInterval() publish interval} trainings,
+ * so that any thread can guess while another one trains, without any lock and without seeing half written layers.
  */
 public class ColorNeuralNetwork implements Serializable {
-    private NeuralNetwork brain;
+    private static final long serialVersionUID = -2065002280983970651L;
+    public static final int DEFAULT_PUBLISH_INTERVAL = 1024;
+    private static final int GUESS_BATCH_SIZE = 256;
+    private Brain brain;
+    // Never trained once published, only replaced.
+    private transient volatile Brain snapshot;
+    private transient volatile DecisionTable table;
+    // Incremented after each publication of a snapshot, to invalidate the cache.
+    private transient volatile int snapshotVersion;
+    private transient volatile GuessCache cache;
+    private transient int publishInterval, trainedSincePublish;
+    private transient double[] trainingInputs;
+    private transient double[][] batchInputs, batchTargets;
     private static int[] architecture = {16};
     private static double[] blackOutput = {1.0,0.0},
             whiteOutput = {0.0,1.0};
+    private static final ThreadLocal<Inference> INFERENCES = ThreadLocal.withInitial(Inference::new);
     public enum BWColor{
         BLACK,
         WHITE
     }
 
+    /**
+     * Precision of the numbers stored and computed by the {@link NeuralNetwork neural network}.
+     * It is chosen once, when the {@link ColorNeuralNetwork} is created, and saved along with it.
+     */
+    public enum Precision{
+        DOUBLE,
+        FLOAT
+    }
+
     /**
      * Creates a new NeuralNetwork that is designed to learn
      * a specific binary anwser for a rgb color.
      */
     public ColorNeuralNetwork(){
+        this(Precision.DOUBLE);
+    }
+
+    /**
+     * Creates a new NeuralNetwork that is designed to learn
+     * a specific binary anwser for a rgb color, storing its weights with the given {@link Precision precision}.
+     * @param precision {@link Precision} of the weights.
+     */
+    public ColorNeuralNetwork(Precision precision){
+        this(precision, Activation.SIGMOID);
+    }
+
+    /**
+     * Creates a new NeuralNetwork that is designed to learn
+     * a specific binary anwser for a rgb color, with the given {@link Activation activation} on its hidden layers.
+     * The outputs layer always uses the {@link Activation#SIGMOID sigmoid}, each output being a probability.
+     * @param precision {@link Precision} of the weights.
+     * @param hiddenActivation {@link Activation} of the hidden layers.
+     */
+    public ColorNeuralNetwork(Precision precision, Activation hiddenActivation){
+        this(precision, hiddenActivation, new Random());
+    }
+
+    /**
+     * Creates a new NeuralNetwork that is designed to learn
+     * a specific binary anwser for a rgb color, whose initial weights are drawn from the given seed,
+     * so that the same seed always creates the same network.
+     * @param precision {@link Precision} of the weights.
+     * @param hiddenActivation {@link Activation} of the hidden layers.
+     * @param seed Seed of the initial weights and biases.
+     */
+    public ColorNeuralNetwork(Precision precision, Activation hiddenActivation, long seed){
+        this(precision, hiddenActivation, new Random(seed));
+    }
+
+    /**
+     * Creates a new NeuralNetwork that is designed to learn
+     * a specific binary anwser for a rgb color, whose initial weights are drawn from the given {@link Random random}.
+     * @param precision {@link Precision} of the weights.
+     * @param hiddenActivation {@link Activation} of the hidden layers.
+     * @param random {@link Random} drawing the initial weights and biases.
+     */
+    private ColorNeuralNetwork(Precision precision, Activation hiddenActivation, Random random){
+        Activation[] activations = new Activation[architecture.length+1];
+        Arrays.fill(activations, hiddenActivation);
+        activations[architecture.length] = Activation.SIGMOID;
+        brain = precision==Precision.FLOAT
+                ? new FloatNeuralNetwork(3,architecture,2 ,0.5, activations, random)
+                : new NeuralNetwork(3,architecture,2 ,0.5, activations, random);
+        publishInterval = DEFAULT_PUBLISH_INTERVAL;
+        publish();
+    }
 
-        brain = new NeuralNetwork(3,architecture,2 ,0.5);
+    /**
+     * Creates a {@link ColorNeuralNetwork} around an existing {@link Brain}, used by a training thread only :
+     * it never publishes any snapshot by itself.
+     * @param brain {@link Brain} to use.
+     */
+    private ColorNeuralNetwork(Brain brain){
+        this.brain = brain;
+    }
+
+    /**
+     * Returns the {@link Precision precision} of the weights of the {@link NeuralNetwork neural network}.
+     * @return {@link Precision}.
+     */
+    public Precision getPrecision(){
+        boolean singlePrecision = brain instanceof FloatNeuralNetwork
+                || brain instanceof MappedNeuralNetwork && ((MappedNeuralNetwork)brain).isSinglePrecision();
+        return singlePrecision?Precision.FLOAT:Precision.DOUBLE;
     }
 //
 //    public void setAutotrainOptions(int[] autotrainOptions) {
@@ -35,6 +135,7 @@ public class ColorNeuralNetwork implements Serializable {
 
     /**
      * Trains the {@link NeuralNetwork neural network} once.
+     * The inputs buffer is reused from one training to the other, so that the training doesn't allocate anything.
      * @param r Red component of the colour.
      * @param g Green component of the colour.
      * @param b Blue component of the colour.
@@ -42,43 +143,485 @@ public class ColorNeuralNetwork implements Serializable {
      */
     public void train(int r, int g, int b, BWColor bw){
         try {
-            brain.back(rgbToInputs(r,g,b),bw==BWColor.BLACK?blackOutput:whiteOutput);
+            if(trainingInputs == null)
+                trainingInputs = new double[3];
+            brain.back(rgbToInputs(r,g,b,trainingInputs),bw==BWColor.BLACK?blackOutput:whiteOutput);
+        } catch (NonMatchingSizesException e) {
+            Log.error("TRAIN : The colour could not be trained.", e);
+        }
+        trained(1);
+    }
+
+    /**
+     * Trains the {@link NeuralNetwork neural network} once with a whole batch of colours,
+     * applying one update averaged over the batch.
+     * @param packedRgb Colours of the batch, each one packed as 0xRRGGBB.
+     * @param labels The expected {@link BWColor black or white colour} of each colour of the batch.
+     */
+    public void trainBatch(int[] packedRgb, BWColor[] labels){
+        if(packedRgb.length != labels.length)
+            throw new IllegalArgumentException("TRAIN BATCH : "+packedRgb.length+" colours for "+labels.length+" labels.");
+        if(batchInputs == null || batchInputs.length != packedRgb.length){
+            batchInputs = new double[packedRgb.length][3];
+            batchTargets = new double[packedRgb.length][];
+        }
+        for (int i = 0; i< packedRgb.length; i++){
+            int rgb = packedRgb[i];
+            rgbToInputs((rgb>>16)&0xFF, (rgb>>8)&0xFF, rgb&0xFF, batchInputs[i]);
+            batchTargets[i] = labels[i]==BWColor.BLACK?blackOutput:whiteOutput;
+        }
+        try {
+            brain.backBatch(batchInputs, batchTargets);
+        } catch (NonMatchingSizesException e) {
+            Log.error("TRAIN BATCH : The batch could not be trained.", e);
+        }
+        trained(packedRgb.length);
+    }
+
+    /**
+     * Counts the trainings and publishes a new snapshot every {@link #getPublishInterval() publish interval} trainings.
+     * @param count Number of samples just trained.
+     */
+    private void trained(int count){
+        if(publishInterval<=0)
+            return;
+        trainedSincePublish+= count;
+        if(trainedSincePublish>= publishInterval)
+            publish();
+    }
+
+    /**
+     * Publishes a copy of the current weights and biases, which answers the guesses until the next publication.
+     * It must be called by the thread training the {@link ColorNeuralNetwork color neural network},
+     * or while nothing trains it.
+     */
+    public void publish(){
+        trainedSincePublish = 0;
+        snapshot = brain.replicate();
+        snapshotVersion++;
+        table = null;
+    }
+
+    /**
+     * Returns the number of snapshots published so far, which changes with each {@link #publish() publication}.
+     * @return {@link int}.
+     */
+    public int getSnapshotVersion(){
+        return snapshotVersion;
+    }
+
+    /**
+     * Puts a bounded cache in front of the guesses, for when a {@link #compileTable(boolean) table} is too large.
+     * The cache is invalidated by each publication of a snapshot.
+     * @param capacity Maximum number of colours kept, rounded up to a power of 2 and at most 256^3. 0 removes the cache.
+     */
+    public void enableCache(int capacity){
+        cache = capacity>0?new GuessCache(capacity):null;
+    }
+
+    /**
+     * Returns the number of guesses answered by the cache since it was enabled.
+     * @return {@link long}, 0 without cache.
+     */
+    public long getCacheHits(){
+        GuessCache current = cache;
+        return current==null?0:current.getHits();
+    }
+
+    /**
+     * Returns the number of guesses that missed the cache since it was enabled.
+     * @return {@link long}, 0 without cache.
+     */
+    public long getCacheMisses(){
+        GuessCache current = cache;
+        return current==null?0:current.getMisses();
+    }
+
+    /**
+     * Computes the guess of each of the 256^3 colours with the last published snapshot, in parallel,
+     * so that the following guesses are one array read. The table is dropped by the next publication of a snapshot,
+     * and the guesses are computed by the network again until this method is called again.
+     * @param withCertainties If true, the certainties are stored too (16 MB more than the 2 MB of the colours),
+     *                        so that {@link #guess(int, int, int)} also uses the table.
+     *                        Otherwise only {@link #guessColor(int, int, int)} does.
+     */
+    public void compileTable(boolean withCertainties){
+        Brain source = snapshot;
+        DecisionTable compiled = DecisionTable.build(source, withCertainties);
+        if(snapshot == source)
+            table = compiled;
+    }
+
+    /**
+     * Tells if the guesses are currently answered by a table computed with the last published snapshot.
+     * @return {@link boolean}.
+     */
+    public boolean isTableCompiled(){
+        DecisionTable current = table;
+        return current != null && current.getSource() == snapshot;
+    }
+
+    /**
+     * Returns the table computed with the last published snapshot, if any.
+     * @return {@link DecisionTable}, or null.
+     */
+    private DecisionTable currentTable(){
+        DecisionTable current = table;
+        return current != null && current.getSource() == snapshot?current:null;
+    }
+
+    /**
+     * Asks what {@link BWColor colour} the correct answer is more likely to be, without its certainty.
+     * Once the table is {@link #compileTable(boolean) compiled}, it is one array read.
+     * Only the lowest 8 bits of each component are read, as by {@link #guessBatch(int[], int, int, byte[], float[])},
+     * so that the answer is the same with or without table.
+     * @param r Red component of the colour.
+     * @param g Green component of the colour.
+     * @param b Blue component of the colour.
+     * @return The {@link BWColor colour}.
+     */
+    public BWColor guessColor(int r, int g, int b){
+        DecisionTable current = currentTable();
+        if(current != null)
+            return current.isWhite((r&0xFF)<<16|(g&0xFF)<<8|b&0xFF)?BWColor.WHITE:BWColor.BLACK;
+        return colorOf(guessPacked(r&0xFF, g&0xFF, b&0xFF));
+    }
+
+    /**
+     * Guesses a whole array of colours at once.
+     * @see #guessBatch(int[], int, int, byte[], float[])
+     */
+    public void guessBatch(int[] packedRgb, byte[] outColor, float[] outCertainty){
+        guessBatch(packedRgb, 0, packedRgb.length, outColor, outCertainty);
+    }
+
+    /**
+     * Guesses a range of colours at once, running the network over {@value #GUESS_BATCH_SIZE} colours at a time
+     * with matrix-matrix products, or reading the {@link #compileTable(boolean) table} if compiled.
+     * Nothing is allocated per colour and the results are written at the same indexes as the colours.
+     * @param packedRgb Colours, each one packed as 0xRRGGBB.
+     * @param from Index of the first colour to guess.
+     * @param to Index following the last colour to guess.
+     * @param outColor Receives the ordinal of the guessed {@link BWColor colour} : 0 for black, 1 for white.
+     * @param outCertainty Receives the certainty of each guess, within [0.5;1]. Can be null if not needed.
+     */
+    public void guessBatch(int[] packedRgb, int from, int to, byte[] outColor, float[] outCertainty){
+        Objects.checkFromToIndex(from, to, packedRgb.length);
+        Objects.checkFromToIndex(from, to, outColor.length);
+        if(outCertainty != null)
+            Objects.checkFromToIndex(from, to, outCertainty.length);
+
+        DecisionTable current = currentTable();
+        if(current != null && (outCertainty == null || current.hasCertainties())){
+            for (int i = from; i< to; i++){
+                int rgb = packedRgb[i]&0xFFFFFF;
+                outColor[i] = (byte)(current.isWhite(rgb)?1:0);
+                if(outCertainty != null)
+                    outCertainty[i] = (float)current.certainty(rgb);
+            }
+            return;
+        }
+
+        Brain source = snapshot;
+        Brain.BatchEvaluator evaluator = null;
+        double[] inputs = null;
+        try {
+            for (int start = from; start< to; start+= GUESS_BATCH_SIZE){
+                int count = Math.min(GUESS_BATCH_SIZE, to-start);
+                if(evaluator == null || inputs.length != 3*count){
+                    evaluator = source.newBatchEvaluator(count);
+                    inputs = new double[3*count];
+                }
+                for (int i = 0; i< count; i++){
+                    int rgb = packedRgb[start+i];
+                    inputs[3*i] = ((rgb>>16)&0xFF)/256.0;
+                    inputs[3*i+1] = ((rgb>>8)&0xFF)/256.0;
+                    inputs[3*i+2] = (rgb&0xFF)/256.0;
+                }
+                double[] outputs = evaluator.evaluate(inputs);
+                for (int i = 0; i< count; i++){
+                    double black = outputs[2*i], white = outputs[2*i+1];
+                    boolean isWhite = black<=white;
+                    outColor[start+i] = (byte)(isWhite?1:0);
+                    if(outCertainty != null)
+                        outCertainty[start+i] = (float)((isWhite?white:black)/(black+white));
+                }
+            }
         } catch (NonMatchingSizesException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("GUESS BATCH : The snapshot doesn't take rgb colours.", e);
         }
     }
 
+    /**
+     * Returns the number of trainings after which a new snapshot is published.
+     * @return {@link int}, 0 if the snapshots are only published by {@link #publish()}.
+     */
+    public int getPublishInterval(){
+        return publishInterval;
+    }
+
+    /**
+     * Sets the number of trainings after which a new snapshot is published.
+     * @param publishInterval {@link int}, 0 to only publish by {@link #publish()}.
+     */
+    public void setPublishInterval(int publishInterval){
+        this.publishInterval = Math.max(0, publishInterval);
+    }
+
     /**
      * Asks the {@link NeuralNetwork neural network} what {@link BWColor colour} the correct answer is more likely to be.
+     * The answer comes from the last published snapshot, so it can be asked by any thread at any time,
+     * or from its table once {@link #compileTable(boolean) compiled} with the certainties,
+     * or from the {@link #enableCache(int) cache} if enabled.
      * @param r Red component of the colour.
      * @param g Green component of the colour.
      * @param b Blue component of the colour.
-     * @return A {@link double[] array} representing the probability of the correct answer to be black and to be white.
+     * @return A {@link double[] array} holding the ordinal of the guessed {@link BWColor colour}
+     * and the certainty of the guess.
+     * @see #guessPacked(int, int, int) to guess without allocating anything.
      */
     public double[] guess(int r, int g, int b){
-        double[] outputs= new double[2];
+        long packed = guessPacked(r,g,b);
+        double[] ret = {colorOf(packed).ordinal(), certaintyOf(packed)};
+        if(Log.DEBUG)
+            Log.debug("ColorNN : "+ Arrays.toString(ret));
+        return ret;
+    }
+
+    /**
+     * Same as {@link #guess(int, int, int)}, without allocating anything nor writing anything :
+     * the guess is packed into a {@link long}, to read with {@link #colorOf(long)} and {@link #certaintyOf(long)}.
+     * Each thread propagates the inputs through its own {@link Brain.Evaluator evaluator} of the current snapshot,
+     * created again only once a new snapshot has been published.
+     * Only the lowest 8 bits of each component are read, so that the answer is the same from the table,
+     * from the cache or from the network.
+     * @param r Red component of the colour.
+     * @param g Green component of the colour.
+     * @param b Blue component of the colour.
+     * @return The bits of the certainty, as a {@link double}, negated when the guess is black.
+     */
+    public long guessPacked(int r, int g, int b){
+        r&= 0xFF;
+        g&= 0xFF;
+        b&= 0xFF;
+        int rgb = r<<16|g<<8|b;
+        DecisionTable current = currentTable();
+        if(current != null && current.hasCertainties())
+            return pack(current.isWhite(rgb), current.certainty(rgb));
+        // The version is read before the snapshot, so that an entry is never older than its version.
+        GuessCache currentCache = cache;
+        int version = snapshotVersion;
+        if(currentCache != null){
+            long entry = currentCache.lookup(rgb, version);
+            if(entry != 0)
+                return pack(GuessCache.isWhite(entry), GuessCache.certainty(entry));
+        }
+        Inference inference = INFERENCES.get();
+        Brain source = snapshot;
+        if(inference.source != source){
+            inference.source = source;
+            inference.evaluator = source.newEvaluator();
+        }
+        double[] outputs;
         try {
-            outputs = brain.forward(rgbToInputs(r,g,b));
+            outputs = inference.evaluator.evaluate(rgbToInputs(r,g,b,inference.inputs));
         } catch (NonMatchingSizesException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("GUESS : The snapshot doesn't take rgb colours.", e);
         }
-        int higherIndex = outputs[0]>outputs[1]?0:1;
-        double[] ret = new double[2];
-        ret[0] = higherIndex;
-        ret[1] = outputs[higherIndex]/(Matrix.sum(outputs));
-        System.out.println("ColorNN : "+ Arrays.toString(ret));
+        boolean white = outputs[0]<=outputs[1];
+        double certainty = (white?outputs[1]:outputs[0])/(outputs[0]+outputs[1]);
+        if(currentCache != null)
+            currentCache.store(rgb, version, white, certainty);
+        return pack(white, certainty);
+    }
+
+    /**
+     * Returns the {@link BWColor colour} of a guess returned by {@link #guessPacked(int, int, int)}.
+     * @param packed Packed guess.
+     * @return {@link BWColor}.
+     */
+    public static BWColor colorOf(long packed){
+        return packed<0?BWColor.BLACK:BWColor.WHITE;
+    }
+
+    /**
+     * Returns the certainty of a guess returned by {@link #guessPacked(int, int, int)}.
+     * @param packed Packed guess.
+     * @return {@link double}, within [0.5;1].
+     */
+    public static double certaintyOf(long packed){
+        return Math.abs(Double.longBitsToDouble(packed));
+    }
+
+    /**
+     * Packs a guess into a {@link long} : the bits of its certainty, which is never 0, with the sign bit set for black.
+     * @param white True if the guess is white.
+     * @param certainty Certainty of the guess.
+     * @return Packed guess.
+     */
+    private static long pack(boolean white, double certainty){
+        return Double.doubleToRawLongBits(white?certainty:-certainty);
+    }
+
+    /**
+     * What a thread needs to guess without allocating anything : an {@link Brain.Evaluator evaluator}
+     * of the snapshot it was created for, and its inputs buffer.
+     */
+    private static final class Inference {
+        private Brain source;
+        private Brain.Evaluator evaluator;
+        private final double[] inputs = new double[3];
+    }
+
+    /**
+     * Returns a deep copy of the {@link ColorNeuralNetwork color neural network} that can be trained by another thread.
+     * @return A new {@link ColorNeuralNetwork}.
+     */
+    ColorNeuralNetwork replicate(){
+        return new ColorNeuralNetwork(brain.replicate());
+    }
+
+    /**
+     * Returns a {@link ColorNeuralNetwork color neural network} training the very same weights and biases,
+     * so that several threads can train them at the same time without any lock.
+     * @return A new {@link ColorNeuralNetwork}.
+     */
+    ColorNeuralNetwork share(){
+        return new ColorNeuralNetwork(brain.share());
+    }
+
+    /**
+     * Overwrites the weights and biases with those of a replica.
+     * @param source {@link ColorNeuralNetwork} obtained by {@link #replicate()}.
+     */
+    void copyOf(ColorNeuralNetwork source){
+        brain.copyOf(source.brain);
+    }
+
+    /**
+     * Overwrites the weights and biases with the mean of those of several replicas.
+     * @param replicas {@link ColorNeuralNetwork color neural networks} obtained by {@link #replicate()}.
+     */
+    void averageOf(ColorNeuralNetwork[] replicas){
+        Brain[] brains = new Brain[replicas.length];
+        for (int r = 0; r< replicas.length; r++)
+            brains[r] = replicas[r].brain;
+        brain.averageOf(brains);
+    }
+
+    /**
+     * Reads the {@link ColorNeuralNetwork color neural network} and publishes its first snapshot.
+     * @param ois {@link ObjectInputStream}.
+     * @throws IOException Exception thrown when reading via the {@link ObjectInputStream}.
+     * @throws ClassNotFoundException Exception thrown when a serialized class is unknown.
+     */
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        publishInterval = DEFAULT_PUBLISH_INTERVAL;
+        publish();
+    }
+
+    /**
+     * Serializes the last published snapshot in place of the trained {@link Brain brain}, so that the
+     * {@link ColorNeuralNetwork color neural network} can be serialized while another thread trains it.
+     * A network created for a training thread has no snapshot and serializes its own brain.
+     * @param oos {@link ObjectOutputStream}.
+     * @throws IOException Exception thrown when writing via the {@link ObjectOutputStream}.
+     */
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        Brain source = snapshot;
+        ObjectOutputStream.PutField fields = oos.putFields();
+        fields.put("brain", source==null?brain:source);
+        oos.writeFields();
+    }
+
+    /**
+     * Writes the last published snapshot of the {@link ColorNeuralNetwork color neural network}, which never changes,
+     * so that it can be written by any thread while another one trains the network.
+     * The layout is the binary one of the nns files, every number being little-endian :
+     * - int32 : {@link Precision precision}, 0 for DOUBLE, 1 for FLOAT.
+     * - int32 : number of layers L, outputs layer included.
+     * - int32[L+1] : number of inputs, then number of neurones of each layer.
+     * - int32[L] : {@link Activation#getId() id} of the activation of each layer.
+     * - zeros up to a multiple of 8 bytes from the start of the file.
+     * - float64 : learning rate.
+     * - for each layer : its weights, row-major (neurone by neurone), then its biases,
+     *   as float64 or float32 according to the precision.
+     * @param out {@link BinaryChannel} to write into.
+     * @throws IOException Exception thrown when writing into the channel.
+     */
+    public void write(BinaryChannel out) throws IOException {
+        Brain source = snapshot;
+        out.putInt(getPrecision()==Precision.FLOAT?1:0);
+        source.write(out);
+    }
+
+    /**
+     * Reads a {@link ColorNeuralNetwork color neural network} written by {@link #write(BinaryChannel)}
+     * and publishes its first snapshot.
+     * @param in {@link BinaryChannel} to read.
+     * @return A new {@link ColorNeuralNetwork}.
+     * @throws IOException Exception thrown when reading the channel, or when the content is invalid.
+     */
+    public static ColorNeuralNetwork read(BinaryChannel in) throws IOException {
+        int precision = in.getInt();
+        Brain brain;
+        if(precision == 0)
+            brain = NeuralNetwork.read(in);
+        else if(precision == 1)
+            brain = FloatNeuralNetwork.read(in);
+        else
+            throw new IOException("COLOR NEURAL NETWORK : Unknown precision "+precision+".");
+        ColorNeuralNetwork ret = new ColorNeuralNetwork(brain);
+        ret.publishInterval = DEFAULT_PUBLISH_INTERVAL;
+        ret.publish();
         return ret;
     }
 
     /**
-     * Convert a rgb colour to an {@link double[] array} that can be used by the {@link NeuralNetwork neural network}.
+     * Returns a read-only {@link ColorNeuralNetwork color neural network} guessing straight from a buffer holding,
+     * at its position, the layout written by {@link #write(BinaryChannel)}. Nothing is copied : the buffer,
+     * typically a {@link java.nio.MappedByteBuffer} of a whole nns file, is its own snapshot.
+     * Training it throws an {@link UnsupportedOperationException}.
+     * @param buffer Little-endian buffer whose index 0 is the start of the file. Its position is moved after the network.
+     * @return A new {@link ColorNeuralNetwork}.
+     * @throws IOException Exception thrown when the content is invalid or the buffer too short.
+     */
+    public static ColorNeuralNetwork map(ByteBuffer buffer) throws IOException {
+        int precision;
+        try {
+            precision = buffer.getInt();
+        } catch (BufferUnderflowException e) {
+            throw new IOException("COLOR NEURAL NETWORK : The file is truncated.");
+        }
+        if(precision != 0 && precision != 1)
+            throw new IOException("COLOR NEURAL NETWORK : Unknown precision "+precision+".");
+        MappedNeuralNetwork brain = MappedNeuralNetwork.map(buffer, precision == 1);
+        ColorNeuralNetwork ret = new ColorNeuralNetwork(brain);
+        ret.snapshot = brain;
+        ret.snapshotVersion++;
+        return ret;
+    }
+
+    /**
+     * Tells if the {@link ColorNeuralNetwork color neural network} guesses straight from a mapped file,
+     * in which case it can't be trained.
+     * @return {@link boolean}.
+     * @see #map(ByteBuffer)
+     */
+    public boolean isMapped(){
+        return brain instanceof MappedNeuralNetwork;
+    }
+
+    /**
+     * Writes a rgb colour inside an {@link double[] array} that can be used by the {@link NeuralNetwork neural network}.
      * @param r Red component of the colour.
      * @param g Green component of the colour.
      * @param b Blue component of the colour.
-     * @return {@link double[] Array} representing each basic colour's intensity.
+     * @param inputs {@link double[] Array} of length 3 receiving each basic colour's intensity.
+     * @return inputs.
      */
-    private double[] rgbToInputs(int r, int g, int b){
-        double[] inputs = new double[3];
+    private double[] rgbToInputs(int r, int g, int b, double[] inputs){
         inputs[0] = r/256.0;
         inputs[1] = g/256.0;
         inputs[2] = b/256.0;
@@ -0,0 +1,99 @@
+package com.wholebrain.colorpredictor.NeuralNetwork;
+
+import java.util.stream.IntStream;
+
+/**
+ * Answers of a {@link Brain} for each of the 256^3 colours, computed once so that a guess is one array read.
+ * - The colours are stored as a bitset of 2 MB, one bit per colour packed as 0xRRGGBB : 0 for black, 1 for white.
+ * - The certainties, optional, are stored as one byte per colour (16 MB), quantized over [0.5, 1] :
+ *   the error is at most 1/1020.
+ * A table answers for the {@link Brain} it was built from, and must not be used once the latter has changed.
+ */
+final class DecisionTable {
+    private static final int COLOURS = 1<<24;
+    private static final double CERTAINTY_SCALE = 510.0;
+    private final Brain source;
+    private final long[] whites;
+    private final byte[] certainties;
+
+    private DecisionTable(Brain source, boolean withCertainties){
+        this.source = source;
+        whites = new long[COLOURS>>>6];
+        certainties = withCertainties?new byte[COLOURS]:null;
+    }
+
+    /**
+     * Builds the table of a {@link Brain}, in parallel on the {@link java.util.concurrent.ForkJoinPool common pool} :
+     * each task computes the 65536 colours of one red component, which fill their own words of the bitset.
+     * @param source {@link Brain} to evaluate, which must not be trained meanwhile, like a published snapshot.
+     * @param withCertainties If true, the certainties are stored too.
+     * @return The {@link DecisionTable}.
+     */
+    static DecisionTable build(Brain source, boolean withCertainties){
+        DecisionTable table = new DecisionTable(source, withCertainties);
+        IntStream.range(0, 256).parallel().forEach(table::fillRed);
+        return table;
+    }
+
+    /**
+     * Computes the colours whose red component is given.
+     * @param red Red component, within [0;255].
+     */
+    private void fillRed(int red){
+        Brain.Evaluator evaluator = source.newEvaluator();
+        double[] inputs = new double[3];
+        inputs[0] = red/256.0;
+        int first = red<<16;
+        try {
+            for (int gb = 0; gb< 1<<16; gb++){
+                int rgb = first|gb;
+                inputs[1] = (gb>>8)/256.0;
+                inputs[2] = (gb&0xFF)/256.0;
+                double[] outputs = evaluator.evaluate(inputs);
+                boolean white = outputs[1]>=outputs[0];
+                if(white)
+                    whites[rgb>>>6] |= 1L<<rgb;
+                if(certainties != null){
+                    double certainty = (white?outputs[1]:outputs[0])/(outputs[0]+outputs[1]);
+                    certainties[rgb] = (byte)Math.round((certainty-0.5)*CERTAINTY_SCALE);
+                }
+            }
+        } catch (NonMatchingSizesException e) {
+            Log.error("DECISION TABLE : The red component "+red+" could not be computed.", e);
+        }
+    }
+
+    /**
+     * Returns the {@link Brain} the table was built from.
+     * @return {@link Brain}.
+     */
+    Brain getSource(){
+        return source;
+    }
+
+    /**
+     * Tells if the certainties are stored.
+     * @return {@link boolean}.
+     */
+    boolean hasCertainties(){
+        return certainties != null;
+    }
+
+    /**
+     * Tells if a colour is guessed white.
+     * @param rgb Colour packed as 0xRRGGBB.
+     * @return True for white, false for black.
+     */
+    boolean isWhite(int rgb){
+        return (whites[rgb>>>6] & 1L<<rgb) != 0;
+    }
+
+    /**
+     * Returns the certainty of the guess of a colour, if the certainties are stored.
+     * @param rgb Colour packed as 0xRRGGBB.
+     * @return The certainty, within [0.5;1].
+     */
+    double certainty(int rgb){
+        return 0.5+(certainties[rgb]&0xFF)/CERTAINTY_SCALE;
+    }
+}
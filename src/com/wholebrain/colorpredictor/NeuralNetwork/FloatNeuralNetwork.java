@@ -0,0 +1,540 @@
+package com.wholebrain.colorpredictor.NeuralNetwork;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Single precision variant of the {@link NeuralNetwork neural network} : weights, biases and outputs
+ * are stored and computed as {@link float floats}, which halves the memory used and read by each propagation.
+ * Layers are stored the same way, as one row-major {@link float[] array} per layer.
+ * Inputs and targets are still given as {@link double[] doubles} and converted on the way in.
+ */
+class FloatNeuralNetwork implements Brain {
+    private static final long serialVersionUID = 1L;
+    // sizes[0] is the number of inputs, sizes[l+1] the number of neurones of the layer l.
+    private int[] sizes;
+    private float[][] weights;
+    private float[][] biases;
+    private float learningRate;
+    // Activations are saved by id.
+    private int[] activationIds;
+    private transient Activation[] activations;
+    private transient Workspace workspace;
+    private transient BatchWorkspace batchWorkspace;
+
+    FloatNeuralNetwork(int nbInputs, int[] hiddenArchitecture, int nbOutputs, double learningRate, Activation[] activations,
+                       Random random){
+        if(activations.length != hiddenArchitecture.length+1)
+            throw new IllegalArgumentException("NEURAL NETWORK : "+activations.length+" activations for "
+                    +(hiddenArchitecture.length+1)+" layers.");
+
+        this.learningRate=(float)learningRate;
+        this.activations = activations.clone();
+        activationIds = new int[activations.length];
+        for (int l = 0; l< activations.length; l++)
+            activationIds[l] = activations[l].getId();
+        sizes = new int[hiddenArchitecture.length+2];
+        sizes[0] = nbInputs;
+        System.arraycopy(hiddenArchitecture, 0, sizes, 1, hiddenArchitecture.length);
+        sizes[sizes.length-1] = nbOutputs;
+        weights = new float[sizes.length-1][];
+        biases = new float[sizes.length-1][];
+
+        // initialize Layers
+        for (int l = 0; l< weights.length; l++){
+            weights[l] = createLayer(random, sizes[l+1], sizes[l]);
+            biases[l] = createLayer(random, sizes[l+1], 1);
+        }
+    }
+
+    /**
+     * Creates a copy of a {@link FloatNeuralNetwork neural network}, with its own buffers.
+     * @param source {@link FloatNeuralNetwork} to copy.
+     * @param shareLayers If true, the weights and biases are the very arrays of the source. Otherwise they are copied.
+     */
+    private FloatNeuralNetwork(FloatNeuralNetwork source, boolean shareLayers){
+        learningRate = source.learningRate;
+        sizes = source.sizes.clone();
+        activations = source.activations.clone();
+        activationIds = source.activationIds.clone();
+        if(shareLayers){
+            weights = source.weights;
+            biases = source.biases;
+            return;
+        }
+        weights = new float[source.weights.length][];
+        biases = new float[source.biases.length][];
+        for (int l = 0; l< weights.length; l++){
+            weights[l] = source.weights[l].clone();
+            biases[l] = source.biases[l].clone();
+        }
+    }
+
+    /**
+     * Propagate forward the {@link double[] inputs} to get the {@link double[] outputs}.
+     * @param inputs {@link double[]}.
+     * @return {@link double[] outputs}.
+     * @throws NonMatchingSizesException Custom Exception in the present package.
+     */
+    @Override
+    public double[] forward(double[] inputs) throws NonMatchingSizesException {
+        float[] outputs = forward(inputs, new Workspace(sizes));
+        double[] ret = new double[outputs.length];
+        for (int i = 0; i< outputs.length; i++)
+            ret[i] = outputs[i];
+        return ret;
+    }
+
+    /**
+     * Returns an {@link Brain.Evaluator evaluator} propagating forward inside its own {@link Workspace workspace},
+     * then converting the outputs into its own {@link double[] array}.
+     * @return A new {@link Brain.Evaluator}.
+     */
+    @Override
+    public Evaluator newEvaluator(){
+        Workspace evaluatorWorkspace = new Workspace(sizes);
+        double[] ret = new double[sizes[sizes.length-1]];
+        return inputs -> {
+            float[] outputs = forward(inputs, evaluatorWorkspace);
+            for (int i = 0; i< outputs.length; i++)
+                ret[i] = outputs[i];
+            return ret;
+        };
+    }
+
+    /**
+     * Returns a {@link Brain.BatchEvaluator batch evaluator} computing each layer of a whole batch
+     * with one matrix-matrix product, the inputs and outputs being converted through its own buffers.
+     * @param batchSize Number of samples of each batch.
+     * @return A new {@link Brain.BatchEvaluator}.
+     */
+    @Override
+    public BatchEvaluator newBatchEvaluator(int batchSize){
+        float[] floatInputs = new float[batchSize*sizes[0]];
+        float[][] outputs = new float[weights.length][];
+        for (int l = 0; l< weights.length; l++)
+            outputs[l] = new float[batchSize*sizes[l+1]];
+        double[] ret = new double[batchSize*sizes[sizes.length-1]];
+        return inputs -> {
+            if(inputs.length != floatInputs.length)
+                throw new NonMatchingSizesException("BATCH EVALUATOR : "+inputs.length+" inputs for "
+                        +floatInputs.length+" expected.");
+            for (int i = 0; i< inputs.length; i++)
+                floatInputs[i] = (float)inputs[i];
+            for (int l = 0; l< weights.length; l++){
+                Matrix.matrixProductTransposed(l>0?outputs[l-1]:floatInputs, batchSize, sizes[l],
+                        weights[l], sizes[l+1], outputs[l]);
+                Matrix.addToRowsAndMap(outputs[l], biases[l], activations[l]);
+            }
+            float[] last = outputs[outputs.length-1];
+            for (int i = 0; i< last.length; i++)
+                ret[i] = last[i];
+            return ret;
+        };
+    }
+
+    /**
+     * Propagate forward the {@link double[] inputs} inside the buffers of a {@link Workspace workspace},
+     * without allocating anything.
+     * @param inputs {@link double[]}.
+     * @param workspace {@link Workspace} owned by the calling thread.
+     * @return {@link float[] outputs}, which is a buffer of the {@link Workspace workspace}
+     * that will be overwritten by its next use.
+     * @throws NonMatchingSizesException Custom Exception in the present package.
+     */
+    float[] forward(double[] inputs, Workspace workspace) throws NonMatchingSizesException {
+        if(inputs.length != sizes[0]){
+            throw new NonMatchingSizesException("FORWARD ERROR : Number of inputs incorrect. Expected : "+sizes[0]+", got : "+inputs.length+".");
+        }
+        for (int i = 0; i< inputs.length; i++)
+            workspace.inputs[i] = (float)inputs[i];
+        float[][] outputs = workspace.outputs;
+        for (int l = 0; l< weights.length; l++)
+            Matrix.layer(weights[l], biases[l], l>0?outputs[l-1]:workspace.inputs, activations[l], outputs[l]);
+        return outputs[outputs.length-1];
+    }
+
+    /**
+     * Backpropagate the target outputs to tweak weights and biases,
+     * so that the {@link FloatNeuralNetwork neural network} can "learn".
+     * Uses the {@link Workspace workspace} of the {@link FloatNeuralNetwork neural network} itself.
+     * @param inputs {@link double[]}
+     * @param targets {@link double[]}
+     * @throws NonMatchingSizesException Custom Exception in the present package.
+     */
+    @Override
+    public void back(double[] inputs, double[] targets) throws NonMatchingSizesException {
+        if(workspace == null)
+            workspace = new Workspace(sizes);
+        back(inputs, targets, workspace);
+    }
+
+    /**
+     * Backpropagate the target outputs to tweak weights and biases, in place and without allocating anything.
+     * @see NeuralNetwork#back(double[], double[], NeuralNetwork.Workspace)
+     * @param inputs {@link double[]}
+     * @param targets {@link double[]}
+     * @param workspace {@link Workspace} owned by the calling thread.
+     * @throws NonMatchingSizesException Custom Exception in the present package.
+     */
+    void back(double[] inputs, double[] targets, Workspace workspace) throws NonMatchingSizesException {
+        if (targets.length != sizes[sizes.length-1]){
+            throw new NonMatchingSizesException("BACK ERROR : Number of outputs incorrect. Expected : "+sizes[sizes.length-1]+", got : "+targets.length+".");
+        }
+
+        // forward pass with outputs of each layer stored.
+        forward(inputs, workspace);
+
+        int nbL = weights.length;
+        float[][] outputs = workspace.outputs,
+                errors = workspace.errors,
+                gradients = workspace.gradients;
+        for (int i = 0; i< targets.length; i++)
+            workspace.targets[i] = (float)targets[i];
+
+        // outputs layer backPropagation
+        Matrix.substract(workspace.targets, outputs[nbL-1], errors[nbL-1]);
+        activations[nbL-1].derivative(outputs[nbL-1], errors[nbL-1], gradients[nbL-1]);
+
+        // hidden layers backPropagation
+        for (int  l = nbL-2; l>=0; l--){
+            Matrix.transposedMatrixProduct(weights[l+1], sizes[l+2], errors[l+1], errors[l]);
+            activations[l].derivative(outputs[l], errors[l], gradients[l]);
+        }
+
+        // updating the weights and biases
+        for (int l = 0; l<nbL;l++){
+            Matrix.addOuterProduct(weights[l], learningRate, gradients[l], l>0?outputs[l-1]:workspace.inputs);
+            Matrix.addExternalProduct(biases[l], learningRate, gradients[l]);
+        }
+    }
+
+    /**
+     * Backpropagates a whole batch of samples at once and applies one update, averaged over the batch,
+     * to the weights and biases.
+     * @see NeuralNetwork#backBatch(double[][], double[][])
+     * @param inputs {@link double[][]} holding one row of inputs per sample.
+     * @param targets {@link double[][]} holding one row of targets per sample.
+     * @throws NonMatchingSizesException Custom Exception in the present package.
+     */
+    @Override
+    public void backBatch(double[][] inputs, double[][] targets) throws NonMatchingSizesException {
+        if(inputs.length == 0 && targets.length == 0)
+            return;
+        if(batchWorkspace == null || batchWorkspace.batchSize != inputs.length)
+            batchWorkspace = new BatchWorkspace(sizes, inputs.length);
+        backBatch(inputs, targets, batchWorkspace);
+    }
+
+    /**
+     * Backpropagates a whole batch of samples at once with matrix-matrix products.
+     * @see NeuralNetwork#backBatch(double[][], double[][], NeuralNetwork.BatchWorkspace)
+     * @param inputs {@link double[][]} holding one row of inputs per sample.
+     * @param targets {@link double[][]} holding one row of targets per sample.
+     * @param workspace {@link BatchWorkspace} owned by the calling thread, sized for this batch.
+     * @throws NonMatchingSizesException Custom Exception in the present package.
+     */
+    void backBatch(double[][] inputs, double[][] targets, BatchWorkspace workspace) throws NonMatchingSizesException {
+        int batchSize = workspace.batchSize, nbInputs = sizes[0], nbOutputs = sizes[sizes.length-1];
+        if(inputs.length != batchSize || targets.length != batchSize){
+            throw new NonMatchingSizesException("BACK BATCH ERROR : Number of samples incorrect. Expected : "+batchSize
+                    +", got : "+inputs.length+" inputs and "+targets.length+" targets.");
+        }
+        if(batchSize == 0)
+            return;
+        for (int s = 0; s< batchSize; s++){
+            if(inputs[s].length != nbInputs || targets[s].length != nbOutputs){
+                throw new NonMatchingSizesException("BACK BATCH ERROR : Sample #"+s+" incorrect. Expected : "+nbInputs+" inputs and "
+                        +nbOutputs+" outputs, got : "+inputs[s].length+" and "+targets[s].length+".");
+            }
+            for (int i = 0; i< nbInputs; i++)
+                workspace.inputs[s*nbInputs+i] = (float)inputs[s][i];
+            for (int i = 0; i< nbOutputs; i++)
+                workspace.targets[s*nbOutputs+i] = (float)targets[s][i];
+        }
+
+        int nbL = weights.length;
+        float[][] outputs = workspace.outputs,
+                errors = workspace.errors,
+                gradients = workspace.gradients;
+
+        // forward pass, one row of outputs per sample.
+        for (int l = 0; l< nbL; l++){
+            Matrix.matrixProductTransposed(l>0?outputs[l-1]:workspace.inputs, batchSize, sizes[l],
+                    weights[l], sizes[l+1], outputs[l]);
+            Matrix.addToRowsAndMap(outputs[l], biases[l], activations[l]);
+        }
+
+        // outputs layer backPropagation
+        Matrix.substract(workspace.targets, outputs[nbL-1], errors[nbL-1]);
+        activations[nbL-1].derivative(outputs[nbL-1], errors[nbL-1], gradients[nbL-1]);
+
+        // hidden layers backPropagation
+        for (int  l = nbL-2; l>=0; l--){
+            Matrix.matrixProduct(errors[l+1], batchSize, sizes[l+2], weights[l+1], sizes[l+1], errors[l]);
+            activations[l].derivative(outputs[l], errors[l], gradients[l]);
+        }
+
+        // updating the weights and biases with the mean of the gradients
+        float rate = learningRate/batchSize;
+        for (int l = 0; l<nbL;l++){
+            Matrix.transposedMatrixProduct(gradients[l], batchSize, sizes[l+1],
+                    l>0?outputs[l-1]:workspace.inputs, sizes[l], workspace.deltaWeights[l]);
+            Matrix.addExternalProduct(weights[l], rate, workspace.deltaWeights[l]);
+            Matrix.sumRows(gradients[l], workspace.deltaBiases[l]);
+            Matrix.addExternalProduct(biases[l], rate, workspace.deltaBiases[l]);
+        }
+    }
+
+    /**
+     * Returns a deep copy of the {@link FloatNeuralNetwork neural network}, with its own buffers.
+     * @return A new {@link FloatNeuralNetwork}.
+     */
+    @Override
+    public Brain replicate(){
+        return new FloatNeuralNetwork(this, false);
+    }
+
+    /**
+     * Returns a {@link FloatNeuralNetwork neural network} training the very same weights and biases, with its own buffers.
+     * @return A new {@link FloatNeuralNetwork}.
+     */
+    @Override
+    public Brain share(){
+        return new FloatNeuralNetwork(this, true);
+    }
+
+    /**
+     * Overwrites the weights and biases with those of another {@link FloatNeuralNetwork neural network} of the same architecture.
+     * @param source {@link Brain} to copy, which must be a {@link FloatNeuralNetwork}.
+     */
+    @Override
+    public void copyOf(Brain source){
+        FloatNeuralNetwork other = sameArchitecture(source);
+        for (int l = 0; l< weights.length; l++){
+            System.arraycopy(other.weights[l], 0, weights[l], 0, weights[l].length);
+            System.arraycopy(other.biases[l], 0, biases[l], 0, biases[l].length);
+        }
+    }
+
+    /**
+     * Overwrites the weights and biases with the mean of those of several {@link FloatNeuralNetwork neural networks}.
+     * @param replicas {@link Brain brains} to average, which must be {@link FloatNeuralNetwork neural networks} of the same architecture.
+     */
+    @Override
+    public void averageOf(Brain[] replicas){
+        FloatNeuralNetwork[] others = new FloatNeuralNetwork[replicas.length];
+        for (int r = 0; r< replicas.length; r++)
+            others[r] = sameArchitecture(replicas[r]);
+        float factor = 1f/replicas.length;
+        for (int l = 0; l< weights.length; l++){
+            average(weights[l], others, l, true, factor);
+            average(biases[l], others, l, false, factor);
+        }
+    }
+
+    /**
+     * Writes the mean of the same layer of several {@link FloatNeuralNetwork neural networks} inside an array.
+     * @param ret Weights or biases of the layer, receiving the mean.
+     * @param others {@link FloatNeuralNetwork Neural networks} to average.
+     * @param layer Index of the layer.
+     * @param isWeights True to average the weights, false to average the biases.
+     * @param factor 1/others.length.
+     */
+    private static void average(float[] ret, FloatNeuralNetwork[] others, int layer, boolean isWeights, float factor){
+        System.arraycopy(isWeights?others[0].weights[layer]:others[0].biases[layer], 0, ret, 0, ret.length);
+        for (int r = 1; r< others.length; r++){
+            float[] array = isWeights?others[r].weights[layer]:others[r].biases[layer];
+            for (int i = 0; i< ret.length; i++)
+                ret[i]+= array[i];
+        }
+        for (int i = 0; i< ret.length; i++)
+            ret[i]*= factor;
+    }
+
+    /**
+     * Checks that a {@link Brain} is a {@link FloatNeuralNetwork} with the same layers.
+     * @param brain {@link Brain} to check.
+     * @return The {@link Brain} as a {@link FloatNeuralNetwork}.
+     * @throws IllegalArgumentException if it has another precision or other layers.
+     */
+    private FloatNeuralNetwork sameArchitecture(Brain brain){
+        if(!(brain instanceof FloatNeuralNetwork) || !Arrays.equals(sizes, ((FloatNeuralNetwork)brain).sizes))
+            throw new IllegalArgumentException("NEURAL NETWORK : The networks don't share the same architecture.");
+        return (FloatNeuralNetwork)brain;
+    }
+
+    /**
+     * Create a layer as a row-major matrix flattened in one {@link float[] array}
+     * with random {@link float floats}.
+     * @param random {@link Random} drawing the floats.
+     * @param nbNeurones Number of neurones of the layer.
+     * @param nbInputs Number of inputs coming into the layer, 1 for the biases.
+     * @return A randomized {@link float[] matrix} of size nbNeurones*nbInputs.
+     */
+    private float[] createLayer(Random random, int nbNeurones, int nbInputs){
+        float[] ret = new float[nbNeurones*nbInputs];
+        for (int w = 0; w< ret.length; w++)
+            ret[w] = random.nextFloat();
+        return ret;
+    }
+
+    /**
+     * Reads the {@link FloatNeuralNetwork neural network} and finds its {@link Activation activations} back from their ids.
+     * @param ois {@link ObjectInputStream}.
+     * @throws IOException Exception thrown when reading via the {@link ObjectInputStream}.
+     * @throws ClassNotFoundException Exception thrown when a serialized class is unknown.
+     */
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ois.defaultReadObject();
+        activations = new Activation[activationIds.length];
+        try {
+            for (int l = 0; l< activationIds.length; l++)
+                activations[l] = Activation.fromId(activationIds[l]);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidObjectException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void write(BinaryChannel out) throws IOException {
+        NeuralNetwork.writeArchitecture(out, sizes, activations);
+        out.putDouble(learningRate);
+        for (int l = 0; l< weights.length; l++){
+            out.putFloats(weights[l]);
+            out.putFloats(biases[l]);
+        }
+    }
+
+    /**
+     * Reads a {@link FloatNeuralNetwork neural network} written by {@link #write(BinaryChannel)}.
+     * @param in {@link BinaryChannel} to read.
+     * @return A new {@link FloatNeuralNetwork}.
+     * @throws IOException Exception thrown when reading the channel, or when the architecture is invalid.
+     */
+    static FloatNeuralNetwork read(BinaryChannel in) throws IOException {
+        FloatNeuralNetwork ret = new FloatNeuralNetwork();
+        ret.sizes = NeuralNetwork.readSizes(in);
+        ret.activations = NeuralNetwork.readActivations(in, ret.sizes.length-1);
+        ret.activationIds = new int[ret.activations.length];
+        for (int l = 0; l< ret.activations.length; l++)
+            ret.activationIds[l] = ret.activations[l].getId();
+        ret.learningRate = (float)in.getDouble();
+        NeuralNetwork.checkRemaining(in, ret.sizes, Float.BYTES);
+        ret.weights = new float[ret.sizes.length-1][];
+        ret.biases = new float[ret.sizes.length-1][];
+        for (int l = 0; l< ret.weights.length; l++){
+            ret.weights[l] = new float[ret.sizes[l+1]*ret.sizes[l]];
+            ret.biases[l] = new float[ret.sizes[l+1]];
+            in.getFloats(ret.weights[l]);
+            in.getFloats(ret.biases[l]);
+        }
+        return ret;
+    }
+
+    /**
+     * Used by {@link #read(BinaryChannel)} only.
+     */
+    private FloatNeuralNetwork(){
+    }
+
+    // START NEURAL NETWORK DESCRIPTION
+
+    /**
+     * Returns a detailed text of the dimensions, weights and biases of the {@link FloatNeuralNetwork neural network}.
+     * @return A {@link String text}.
+     */
+    public String toString(){
+        StringBuilder sb = new StringBuilder("Neural Network (single precision) :\n");
+        StringBuilder sbNeurones = new StringBuilder("\n");
+        sb.append("Dimensions = ").append(weights.length).append(" layers\n");
+        // Global Architecture :
+        for (int i= 0; i<weights.length; i++) {
+            sb.append("Layer #").append(i)
+                    .append(" has ").append(sizes[i+1]).append(" neurones (").append(activations[i]).append(").\n");
+            sbNeurones.append("Layer #").append(i).append(" : \n");
+            for (int j = 0; j< sizes[i+1]; j++)
+                sbNeurones.append("\t").append(neuroneToString(i,j)).append("\n");
+        }
+
+        sb.append(sbNeurones);
+        return sb.toString();
+    }
+
+    /**
+     * Returns a detailed text of a neurone specified by its layer and its index.
+     * @param layerIndex {@link int index} of the layer in the {@link FloatNeuralNetwork neural network}.
+     * @param neurone {@link int index} of the neurone inside the layer.
+     * @return A {@link String text}.
+     */
+    private String neuroneToString(int layerIndex, int neurone){
+        String separator = " | ";
+        StringBuilder sb = new StringBuilder("Neurone [").append(layerIndex)
+                .append("][").append(neurone).append("] : ")
+                .append("Bias = ").append(biases[layerIndex][neurone]).append(separator);
+        int nbInputs = sizes[layerIndex];
+        for (int k = 0; k<nbInputs; k++){
+            sb.append("Weight #").append(k).append("=").append(weights[layerIndex][neurone*nbInputs+k])
+                    .append(separator);
+        }
+        sb.delete(sb.lastIndexOf(separator), sb.length());
+        return sb.toString();
+    }
+    // END NEURAL NETWORK DESCRIPTION
+
+    /**
+     * Preallocated buffers holding the inputs, targets, outputs, errors and gradients of each layer.
+     * @see NeuralNetwork.Workspace
+     */
+    static final class Workspace {
+        private final float[] inputs, targets;
+        private final float[][] outputs, errors, gradients;
+
+        private Workspace(int[] sizes){
+            int nbL = sizes.length-1;
+            inputs = new float[sizes[0]];
+            targets = new float[sizes[nbL]];
+            outputs = new float[nbL][];
+            errors = new float[nbL][];
+            gradients = new float[nbL][];
+            for (int l = 0; l< nbL; l++){
+                outputs[l] = new float[sizes[l+1]];
+                errors[l] = new float[sizes[l+1]];
+                gradients[l] = new float[sizes[l+1]];
+            }
+        }
+    }
+
+    /**
+     * Preallocated buffers holding, for a whole batch, the outputs, errors and gradients of each layer.
+     * @see NeuralNetwork.BatchWorkspace
+     */
+    static final class BatchWorkspace {
+        private final int batchSize;
+        private final float[] inputs, targets;
+        private final float[][] outputs, errors, gradients, deltaWeights, deltaBiases;
+
+        private BatchWorkspace(int[] sizes, int batchSize){
+            int nbL = sizes.length-1;
+            this.batchSize = batchSize;
+            inputs = new float[batchSize*sizes[0]];
+            targets = new float[batchSize*sizes[nbL]];
+            outputs = new float[nbL][];
+            errors = new float[nbL][];
+            gradients = new float[nbL][];
+            deltaWeights = new float[nbL][];
+            deltaBiases = new float[nbL][];
+            for (int l = 0; l< nbL; l++){
+                outputs[l] = new float[batchSize*sizes[l+1]];
+                errors[l] = new float[batchSize*sizes[l+1]];
+                gradients[l] = new float[batchSize*sizes[l+1]];
+                deltaWeights[l] = new float[sizes[l+1]*sizes[l]];
+                deltaBiases[l] = new float[sizes[l+1]];
+            }
+        }
+    }
+
+}
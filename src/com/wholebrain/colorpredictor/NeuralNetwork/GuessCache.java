@@ -0,0 +1,167 @@
+package com.wholebrain.colorpredictor.NeuralNetwork;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of guesses, keyed by colours packed as 0xRRGGBB, without any boxing.
+ * It is an open-addressing table of {@link long longs}, each entry packing :
+ * - bits 0 to 23 : the colour,
+ * - bit 24 : 1 if the guess is white,
+ * - bits 25 to 40 : the certainty quantized over [0, 1] (error at most 1/131070),
+ * - bits 41 to 62 : the version of the snapshot the guess was computed with, modulo 2^22,
+ * - bit 63 : 1 if the slot is used.
+ * A colour is looked for in the {@value #PROBES} slots following its hash. When they are all used, one of them is
+ * evicted by a clock : the hand skips, and clears, the slots read since it last passed over them.
+ * Entries of another version are never returned, so that publishing new weights invalidates the whole cache at once.
+ *
+ * The cache is shared by the guessing threads without any lock : an entry is read and written at once,
+ * and only the clock bits, which are hints, can be lost.
+ */
+final class GuessCache {
+    private static final VarHandle ENTRIES = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int PROBES = 8;
+    // There are no more colours than this, so a larger cache would never be filled.
+    private static final int MAX_CAPACITY = 1<<24;
+    private static final int VERSION_SHIFT = 41;
+    private static final long VERSION_MASK = (1L<<22)-1;
+    private static final long USED = 1L<<63;
+    private static final double CERTAINTY_SCALE = 65535.0;
+    private final long[] entries;
+    private final byte[] referenced;
+    private final int mask;
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+    private int hand;
+
+    /**
+     * Creates an empty cache.
+     * @param capacity Maximum number of colours, rounded up to a power of 2, at least {@value #PROBES}
+     *                 and at most {@value #MAX_CAPACITY}, the number of colours.
+     */
+    GuessCache(int capacity){
+        int size = Integer.highestOneBit(Math.max(PROBES, Math.min(MAX_CAPACITY, capacity))-1)<<1;
+        entries = new long[size];
+        referenced = new byte[size];
+        mask = size-1;
+    }
+
+    /**
+     * Returns the number of colours the cache can hold.
+     * @return {@link int}.
+     */
+    int getCapacity(){
+        return entries.length;
+    }
+
+    /**
+     * Looks for the guess of a colour.
+     * @param rgb Colour packed as 0xRRGGBB.
+     * @param version Version of the current snapshot.
+     * @return The entry, to read with {@link #isWhite(long)} and {@link #certainty(long)}, or 0 if it is missing.
+     */
+    long lookup(int rgb, int version){
+        long expected = USED | (version&VERSION_MASK)<<VERSION_SHIFT | rgb;
+        long keyMask = USED | VERSION_MASK<<VERSION_SHIFT | 0xFFFFFF;
+        int start = hash(rgb);
+        for (int p = 0; p< PROBES; p++){
+            int slot = (start+p)&mask;
+            long entry = (long)ENTRIES.getOpaque(entries, slot);
+            if((entry&keyMask) == expected){
+                referenced[slot] = 1;
+                hits.increment();
+                return entry;
+            }
+        }
+        misses.increment();
+        return 0;
+    }
+
+    /**
+     * Stores the guess of a colour, in a free slot, a slot of another version, or the one chosen by the clock.
+     * @param rgb Colour packed as 0xRRGGBB.
+     * @param version Version of the snapshot the guess was computed with.
+     * @param white True if the guess is white.
+     * @param certainty Certainty of the guess, within [0;1].
+     */
+    void store(int rgb, int version, boolean white, double certainty){
+        long entry = USED | (version&VERSION_MASK)<<VERSION_SHIFT | Math.round(certainty*CERTAINTY_SCALE)<<25
+                | (white?1L<<24:0L) | rgb;
+        int start = hash(rgb);
+        for (int p = 0; p< PROBES; p++){
+            int slot = (start+p)&mask;
+            long current = (long)ENTRIES.getOpaque(entries, slot);
+            if((current&USED) == 0 || (current>>>VERSION_SHIFT&VERSION_MASK) != (version&VERSION_MASK)
+                    || (current&0xFFFFFF) == rgb){
+                write(slot, entry);
+                return;
+            }
+        }
+        // Clock over the probed slots : at most two turns, the first one clearing the bits.
+        int offset = hand;
+        for (int turn = 0; turn< 2*PROBES; turn++, offset++){
+            int slot = (start+(offset&(PROBES-1)))&mask;
+            if(referenced[slot] == 0){
+                hand = offset+1;
+                write(slot, entry);
+                return;
+            }
+            referenced[slot] = 0;
+        }
+        write(start, entry);
+    }
+
+    /**
+     * Writes an entry in a slot, as not read yet.
+     * @param slot Index of the slot.
+     * @param entry Packed entry.
+     */
+    private void write(int slot, long entry){
+        referenced[slot] = 0;
+        ENTRIES.setOpaque(entries, slot, entry);
+    }
+
+    /**
+     * Spreads the colours over the table, so that close colours don't share their slots.
+     * @param rgb Colour packed as 0xRRGGBB.
+     * @return Index of the first slot to probe.
+     */
+    private int hash(int rgb){
+        int h = rgb*0x9E3779B1;
+        return (h^h>>>16)&mask;
+    }
+
+    /**
+     * Tells if an entry returned by {@link #lookup(int, int)} is a white guess.
+     * @param entry Packed entry.
+     * @return {@link boolean}.
+     */
+    static boolean isWhite(long entry){
+        return (entry&1L<<24) != 0;
+    }
+
+    /**
+     * Returns the certainty of an entry returned by {@link #lookup(int, int)}.
+     * @param entry Packed entry.
+     * @return {@link double}, within [0;1].
+     */
+    static double certainty(long entry){
+        return (entry>>>25&0xFFFF)/CERTAINTY_SCALE;
+    }
+
+    /**
+     * Returns the number of guesses found in the cache.
+     * @return {@link long}.
+     */
+    long getHits(){
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of guesses missing from the cache.
+     * @return {@link long}.
+     */
+    long getMisses(){
+        return misses.sum();
+    }
+}
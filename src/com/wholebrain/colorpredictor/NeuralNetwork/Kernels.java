@@ -0,0 +1,327 @@
+package com.wholebrain.colorpredictor.NeuralNetwork;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Innermost loops of the {@link Matrix} operations that are reductions : dot products and matrix-vector products.
+ * The JIT compiler vectorizes the simple element-wise loops of {@link Matrix} on its own, but it keeps
+ * a floating point reduction in its original order, so these loops are limited by the latency of one addition
+ * per element unless they are written with several independent accumulators.
+ *
+ * The implementation is chosen once, when the class is loaded :
+ * - "unrolled" (default) : 4 independent accumulators, and 4 rows at a time for the matrix-vector products.
+ * - "scalar" : the original one-accumulator loops, giving exactly the same results as before.
+ * It can be forced with the system property {@code colorpredictor.kernels}.
+ */
+abstract class Kernels {
+    static final Kernels INSTANCE = select(System.getProperty("colorpredictor.kernels", "unrolled"));
+
+    /**
+     * Returns the implementation corresponding to a name, falling back to the scalar one when unknown.
+     * @param name "unrolled" or "scalar".
+     * @return The {@link Kernels kernels} to use.
+     */
+    private static Kernels select(String name){
+        if("unrolled".equalsIgnoreCase(name))
+            return new Unrolled();
+        if(!"scalar".equalsIgnoreCase(name))
+            Log.warn("KERNELS : Unknown kernels \""+name+"\", using the scalar ones.");
+        return new Scalar();
+    }
+
+    /**
+     * Returns the name of the implementation, for diagnostics.
+     * @return {@link String}.
+     */
+    abstract String name();
+
+    /**
+     * Returns the dot product of two slices of arrays.
+     * @param array1 First array, as a double[].
+     * @param offset1 Index of the first cell of the slice inside the first array.
+     * @param array2 Second array, as a double[].
+     * @param offset2 Index of the first cell of the slice inside the second array.
+     * @param length Length of both slices.
+     * @return The sum of the products of the cells.
+     */
+    abstract double dot(double[] array1, int offset1, double[] array2, int offset2, int length);
+
+    /**
+     * Writes matrix*array into ret.
+     * @param matrix Matrix as a row-major double[rows*cols].
+     * @param rows Number of rows of the matrix.
+     * @param cols Number of columns of the matrix.
+     * @param array Array as a double[cols].
+     * @param ret Array as a double[rows], which must not be the multiplied array.
+     */
+    abstract void matrixVector(double[] matrix, int rows, int cols, double[] array, double[] ret);
+
+    /**
+     * Writes transpose(matrix)*array into ret, reading the matrix in its own layout.
+     * @param matrix Matrix as a row-major double[rows*cols].
+     * @param rows Number of rows of the matrix.
+     * @param cols Number of columns of the matrix.
+     * @param array Array as a double[rows].
+     * @param ret Array as a double[cols], which must not be the multiplied array.
+     */
+    abstract void transposedMatrixVector(double[] matrix, int rows, int cols, double[] array, double[] ret);
+
+    /**
+     * @see #dot(double[], int, double[], int, int)
+     */
+    abstract float dot(float[] array1, int offset1, float[] array2, int offset2, int length);
+
+    /**
+     * @see #matrixVector(double[], int, int, double[], double[])
+     */
+    abstract void matrixVector(float[] matrix, int rows, int cols, float[] array, float[] ret);
+
+    /**
+     * @see #transposedMatrixVector(double[], int, int, double[], double[])
+     */
+    abstract void transposedMatrixVector(float[] matrix, int rows, int cols, float[] array, float[] ret);
+
+    /**
+     * Returns the dot product of a slice of a buffer, such as a mapped file, by a slice of an array,
+     * summed in the same order as {@link #dot(double[], int, double[], int, int)}.
+     * @see #dot(double[], int, double[], int, int)
+     */
+    abstract double dot(DoubleBuffer buffer1, int offset1, double[] array2, int offset2, int length);
+
+    /**
+     * @see #dot(DoubleBuffer, int, double[], int, int)
+     */
+    abstract float dot(FloatBuffer buffer1, int offset1, float[] array2, int offset2, int length);
+
+    /**
+     * The original loops, with one accumulator.
+     */
+    private static final class Scalar extends Kernels {
+        @Override
+        String name(){
+            return "scalar";
+        }
+
+        @Override
+        double dot(double[] array1, int offset1, double[] array2, int offset2, int length){
+            double ret = 0.0;
+            for (int i = 0; i< length; i++)
+                ret+= array1[offset1+i] * array2[offset2+i];
+            return ret;
+        }
+
+        @Override
+        void matrixVector(double[] matrix, int rows, int cols, double[] array, double[] ret){
+            for (int i = 0; i< rows; i++)
+                ret[i] = dot(matrix, i*cols, array, 0, cols);
+        }
+
+        @Override
+        void transposedMatrixVector(double[] matrix, int rows, int cols, double[] array, double[] ret){
+            for (int j = 0; j< cols; j++)
+                ret[j] = 0.0;
+            for (int i = 0; i< rows; i++){
+                double factor = array[i];
+                int offset = i*cols;
+                for (int j = 0; j< cols; j++)
+                    ret[j]+= matrix[offset+j] * factor;
+            }
+        }
+
+        @Override
+        float dot(float[] array1, int offset1, float[] array2, int offset2, int length){
+            float ret = 0f;
+            for (int i = 0; i< length; i++)
+                ret+= array1[offset1+i] * array2[offset2+i];
+            return ret;
+        }
+
+        @Override
+        void matrixVector(float[] matrix, int rows, int cols, float[] array, float[] ret){
+            for (int i = 0; i< rows; i++)
+                ret[i] = dot(matrix, i*cols, array, 0, cols);
+        }
+
+        @Override
+        void transposedMatrixVector(float[] matrix, int rows, int cols, float[] array, float[] ret){
+            for (int j = 0; j< cols; j++)
+                ret[j] = 0f;
+            for (int i = 0; i< rows; i++){
+                float factor = array[i];
+                int offset = i*cols;
+                for (int j = 0; j< cols; j++)
+                    ret[j]+= matrix[offset+j] * factor;
+            }
+        }
+
+        @Override
+        double dot(DoubleBuffer buffer1, int offset1, double[] array2, int offset2, int length){
+            double ret = 0.0;
+            for (int i = 0; i< length; i++)
+                ret+= buffer1.get(offset1+i) * array2[offset2+i];
+            return ret;
+        }
+
+        @Override
+        float dot(FloatBuffer buffer1, int offset1, float[] array2, int offset2, int length){
+            float ret = 0f;
+            for (int i = 0; i< length; i++)
+                ret+= buffer1.get(offset1+i) * array2[offset2+i];
+            return ret;
+        }
+    }
+
+    /**
+     * Loops unrolled by 4 with independent accumulators, so that several additions are in flight at once
+     * and the loads of the shared array are reused for 4 rows.
+     */
+    private static final class Unrolled extends Kernels {
+        @Override
+        String name(){
+            return "unrolled";
+        }
+
+        @Override
+        double dot(double[] array1, int offset1, double[] array2, int offset2, int length){
+            double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+            int i = 0;
+            for (; i<= length-4; i+= 4){
+                s0+= array1[offset1+i] * array2[offset2+i];
+                s1+= array1[offset1+i+1] * array2[offset2+i+1];
+                s2+= array1[offset1+i+2] * array2[offset2+i+2];
+                s3+= array1[offset1+i+3] * array2[offset2+i+3];
+            }
+            for (; i< length; i++)
+                s0+= array1[offset1+i] * array2[offset2+i];
+            return (s0+s1)+(s2+s3);
+        }
+
+        @Override
+        void matrixVector(double[] matrix, int rows, int cols, double[] array, double[] ret){
+            int i = 0;
+            for (; i<= rows-4; i+= 4){
+                int o0 = i*cols, o1 = o0+cols, o2 = o1+cols, o3 = o2+cols;
+                double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+                for (int j = 0; j< cols; j++){
+                    double x = array[j];
+                    s0+= matrix[o0+j] * x;
+                    s1+= matrix[o1+j] * x;
+                    s2+= matrix[o2+j] * x;
+                    s3+= matrix[o3+j] * x;
+                }
+                ret[i] = s0;
+                ret[i+1] = s1;
+                ret[i+2] = s2;
+                ret[i+3] = s3;
+            }
+            for (; i< rows; i++)
+                ret[i] = dot(matrix, i*cols, array, 0, cols);
+        }
+
+        @Override
+        void transposedMatrixVector(double[] matrix, int rows, int cols, double[] array, double[] ret){
+            for (int j = 0; j< cols; j++)
+                ret[j] = 0.0;
+            int i = 0;
+            for (; i<= rows-4; i+= 4){
+                int o0 = i*cols, o1 = o0+cols, o2 = o1+cols, o3 = o2+cols;
+                double f0 = array[i], f1 = array[i+1], f2 = array[i+2], f3 = array[i+3];
+                for (int j = 0; j< cols; j++)
+                    ret[j]+= (matrix[o0+j]*f0 + matrix[o1+j]*f1) + (matrix[o2+j]*f2 + matrix[o3+j]*f3);
+            }
+            for (; i< rows; i++){
+                double factor = array[i];
+                int offset = i*cols;
+                for (int j = 0; j< cols; j++)
+                    ret[j]+= matrix[offset+j] * factor;
+            }
+        }
+
+        @Override
+        float dot(float[] array1, int offset1, float[] array2, int offset2, int length){
+            float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+            int i = 0;
+            for (; i<= length-4; i+= 4){
+                s0+= array1[offset1+i] * array2[offset2+i];
+                s1+= array1[offset1+i+1] * array2[offset2+i+1];
+                s2+= array1[offset1+i+2] * array2[offset2+i+2];
+                s3+= array1[offset1+i+3] * array2[offset2+i+3];
+            }
+            for (; i< length; i++)
+                s0+= array1[offset1+i] * array2[offset2+i];
+            return (s0+s1)+(s2+s3);
+        }
+
+        @Override
+        void matrixVector(float[] matrix, int rows, int cols, float[] array, float[] ret){
+            int i = 0;
+            for (; i<= rows-4; i+= 4){
+                int o0 = i*cols, o1 = o0+cols, o2 = o1+cols, o3 = o2+cols;
+                float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+                for (int j = 0; j< cols; j++){
+                    float x = array[j];
+                    s0+= matrix[o0+j] * x;
+                    s1+= matrix[o1+j] * x;
+                    s2+= matrix[o2+j] * x;
+                    s3+= matrix[o3+j] * x;
+                }
+                ret[i] = s0;
+                ret[i+1] = s1;
+                ret[i+2] = s2;
+                ret[i+3] = s3;
+            }
+            for (; i< rows; i++)
+                ret[i] = dot(matrix, i*cols, array, 0, cols);
+        }
+
+        @Override
+        void transposedMatrixVector(float[] matrix, int rows, int cols, float[] array, float[] ret){
+            for (int j = 0; j< cols; j++)
+                ret[j] = 0f;
+            int i = 0;
+            for (; i<= rows-4; i+= 4){
+                int o0 = i*cols, o1 = o0+cols, o2 = o1+cols, o3 = o2+cols;
+                float f0 = array[i], f1 = array[i+1], f2 = array[i+2], f3 = array[i+3];
+                for (int j = 0; j< cols; j++)
+                    ret[j]+= (matrix[o0+j]*f0 + matrix[o1+j]*f1) + (matrix[o2+j]*f2 + matrix[o3+j]*f3);
+            }
+            for (; i< rows; i++){
+                float factor = array[i];
+                int offset = i*cols;
+                for (int j = 0; j< cols; j++)
+                    ret[j]+= matrix[offset+j] * factor;
+            }
+        }
+
+        @Override
+        double dot(DoubleBuffer buffer1, int offset1, double[] array2, int offset2, int length){
+            double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+            int i = 0;
+            for (; i<= length-4; i+= 4){
+                s0+= buffer1.get(offset1+i) * array2[offset2+i];
+                s1+= buffer1.get(offset1+i+1) * array2[offset2+i+1];
+                s2+= buffer1.get(offset1+i+2) * array2[offset2+i+2];
+                s3+= buffer1.get(offset1+i+3) * array2[offset2+i+3];
+            }
+            for (; i< length; i++)
+                s0+= buffer1.get(offset1+i) * array2[offset2+i];
+            return (s0+s1)+(s2+s3);
+        }
+
+        @Override
+        float dot(FloatBuffer buffer1, int offset1, float[] array2, int offset2, int length){
+            float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+            int i = 0;
+            for (; i<= length-4; i+= 4){
+                s0+= buffer1.get(offset1+i) * array2[offset2+i];
+                s1+= buffer1.get(offset1+i+1) * array2[offset2+i+1];
+                s2+= buffer1.get(offset1+i+2) * array2[offset2+i+2];
+                s3+= buffer1.get(offset1+i+3) * array2[offset2+i+3];
+            }
+            for (; i< length; i++)
+                s0+= buffer1.get(offset1+i) * array2[offset2+i];
+            return (s0+s1)+(s2+s3);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.wholebrain.colorpredictor.NeuralNetwork;
+
+/**
+ * Minimal logger of the color predictor, writing on the error output.
+ * The level is chosen once, when the class is loaded, with the system property {@code colorpredictor.log}
+ * ("off", "error", "warn", "info" or "debug", "warn" by default).
+ * Each level is a static final field, so that a message built behind its test, as in
+ * {@code if(Log.DEBUG) Log.debug("..."+value);}, costs nothing when the level is disabled :
+ * the JIT removes the test and the message once the class is initialised.
+ */
+public final class Log {
+    public enum Level{
+        OFF,
+        ERROR,
+        WARN,
+        INFO,
+        DEBUG
+    }
+
+    public static final Level LEVEL = select(System.getProperty("colorpredictor.log", "warn"));
+    public static final boolean ERROR = LEVEL.compareTo(Level.ERROR)>=0,
+            WARN = LEVEL.compareTo(Level.WARN)>=0,
+            INFO = LEVEL.compareTo(Level.INFO)>=0,
+            DEBUG = LEVEL.compareTo(Level.DEBUG)>=0;
+
+    private Log(){}
+
+    /**
+     * Returns the level corresponding to a name, falling back to WARN when unknown.
+     * @param name Name of a {@link Level level}, whatever its case.
+     * @return The {@link Level level}.
+     */
+    private static Level select(String name){
+        for (Level level : Level.values())
+            if(level.name().equalsIgnoreCase(name))
+                return level;
+        System.err.println("LOG : Unknown level \""+name+"\", using WARN.");
+        return Level.WARN;
+    }
+
+    /**
+     * Logs an error, if the level allows it.
+     * @param message Message to log.
+     */
+    public static void error(String message){
+        if(ERROR)
+            System.err.println(message);
+    }
+
+    /**
+     * Logs an error and the stack trace of its cause, if the level allows it.
+     * @param message Message to log.
+     * @param cause {@link Throwable} that caused the error.
+     */
+    public static void error(String message, Throwable cause){
+        if(ERROR){
+            System.err.println(message);
+            cause.printStackTrace();
+        }
+    }
+
+    /**
+     * Logs a warning, if the level allows it.
+     * @param message Message to log.
+     */
+    public static void warn(String message){
+        if(WARN)
+            System.err.println(message);
+    }
+
+    /**
+     * Logs an information, if the level allows it.
+     * @param message Message to log.
+     */
+    public static void info(String message){
+        if(INFO)
+            System.err.println(message);
+    }
+
+    /**
+     * Logs a detail, if the level allows it. The caller should test {@link #DEBUG} before building the message.
+     * @param message Message to log.
+     */
+    public static void debug(String message){
+        if(DEBUG)
+            System.err.println(message);
+    }
+}
@@ -0,0 +1,272 @@
+package com.wholebrain.colorpredictor.NeuralNetwork;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.Channels;
+
+/**
+ * Read-only {@link Brain} guessing straight from the layers of a nns file, as written by
+ * {@link ColorNeuralNetwork#write(BinaryChannel)}, kept in a buffer which is typically a {@link java.nio.MappedByteBuffer}
+ * of the whole file : nothing is copied onto the heap, the pages are shared by every process mapping the same file,
+ * and they are only read from the disk when first used. The guesses are the same as those of the
+ * {@link NeuralNetwork neural network} or of the {@link FloatNeuralNetwork single precision one} it was saved from.
+ * It can't be trained : {@link #replicate()} copies it onto the heap, and the other methods changing it throw
+ * an {@link UnsupportedOperationException}.
+ */
+final class MappedNeuralNetwork implements Brain {
+    private static final long serialVersionUID = 1L;
+    private static final Kernels KERNELS = Kernels.INSTANCE;
+    // sizes[0] is the number of inputs, sizes[l+1] the number of neurones of the layer l.
+    private final int[] sizes;
+    private final Activation[] activations;
+    private final double learningRate;
+    // Raw bytes of the layers, and the same seen as numbers of the precision of the file, only one of them being set.
+    private final transient ByteBuffer layers;
+    private final transient DoubleBuffer doubles;
+    private final transient FloatBuffer floats;
+    // Index of the first weight and of the first bias of each layer, counted in numbers from the start of the layers.
+    private final int[] weightOffsets, biasOffsets;
+
+    private MappedNeuralNetwork(int[] sizes, Activation[] activations, double learningRate, ByteBuffer layers,
+                                boolean singlePrecision){
+        this.sizes = sizes;
+        this.activations = activations;
+        this.learningRate = learningRate;
+        this.layers = layers;
+        doubles = singlePrecision?null:layers.asDoubleBuffer();
+        floats = singlePrecision?layers.asFloatBuffer():null;
+        weightOffsets = new int[sizes.length-1];
+        biasOffsets = new int[sizes.length-1];
+        int offset = 0;
+        for (int l = 0; l< weightOffsets.length; l++){
+            weightOffsets[l] = offset;
+            offset+= sizes[l+1]*sizes[l];
+            biasOffsets[l] = offset;
+            offset+= sizes[l+1];
+        }
+    }
+
+    /**
+     * Maps the network written by {@link NeuralNetwork#write(BinaryChannel)} or {@link FloatNeuralNetwork#write(BinaryChannel)}
+     * at the position of a buffer, and moves this position after the network.
+     * @param buffer Little-endian buffer holding the whole nns file, its index 0 being the start of the file,
+     *               so that the alignment of the layers is kept.
+     * @param singlePrecision True if the layers are floats, false if they are doubles.
+     * @return A new {@link MappedNeuralNetwork}, sharing the content of the buffer.
+     * @throws IOException Exception thrown when the architecture is invalid or the buffer too short.
+     */
+    static MappedNeuralNetwork map(ByteBuffer buffer, boolean singlePrecision) throws IOException {
+        try {
+            int nbLayers = NeuralNetwork.checkNbLayers(buffer.getInt());
+            int[] sizes = new int[nbLayers+1];
+            for (int l = 0; l< sizes.length; l++)
+                sizes[l] = buffer.getInt();
+            NeuralNetwork.checkSizes(sizes);
+            Activation[] activations = new Activation[nbLayers];
+            for (int l = 0; l< nbLayers; l++)
+                activations[l] = Activation.fromId(buffer.getInt());
+            buffer.position((buffer.position()+Double.BYTES-1)/Double.BYTES*Double.BYTES);
+            double learningRate = buffer.getDouble();
+
+            long numbers = 0;
+            for (int l = 0; l< nbLayers; l++)
+                numbers+= (long)sizes[l+1]*sizes[l] + sizes[l+1];
+            long bytes = numbers*(singlePrecision?Float.BYTES:Double.BYTES);
+            if(bytes > buffer.remaining())
+                throw new IOException("MAPPED NEURAL NETWORK : The file is truncated.");
+            ByteBuffer layers = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+            layers.limit((int)bytes);
+            buffer.position(buffer.position()+(int)bytes);
+            return new MappedNeuralNetwork(sizes, activations, learningRate, layers, singlePrecision);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("MAPPED NEURAL NETWORK : Invalid network ("+e+").");
+        }
+    }
+
+    /**
+     * Tells if the layers are floats rather than doubles.
+     * @return {@link boolean}.
+     */
+    boolean isSinglePrecision(){
+        return floats != null;
+    }
+
+    @Override
+    public double[] forward(double[] inputs) throws NonMatchingSizesException {
+        return newEvaluator().evaluate(inputs);
+    }
+
+    /**
+     * Returns an {@link Brain.Evaluator evaluator} propagating forward inside its own buffers,
+     * reading the weights and biases from the mapped layers.
+     * @return A new {@link Brain.Evaluator}.
+     */
+    @Override
+    public Evaluator newEvaluator(){
+        double[] ret = new double[sizes[sizes.length-1]];
+        if(floats != null){
+            float[] floatInputs = new float[sizes[0]];
+            float[][] outputs = new float[sizes.length-1][];
+            for (int l = 0; l< outputs.length; l++)
+                outputs[l] = new float[sizes[l+1]];
+            return inputs -> {
+                checkInputs(inputs.length);
+                for (int i = 0; i< inputs.length; i++)
+                    floatInputs[i] = (float)inputs[i];
+                for (int l = 0; l< outputs.length; l++)
+                    layer(l, l>0?outputs[l-1]:floatInputs, outputs[l]);
+                float[] last = outputs[outputs.length-1];
+                for (int i = 0; i< last.length; i++)
+                    ret[i] = last[i];
+                return ret;
+            };
+        }
+        double[][] outputs = new double[sizes.length-2][];
+        for (int l = 0; l< outputs.length; l++)
+            outputs[l] = new double[sizes[l+1]];
+        return inputs -> {
+            checkInputs(inputs.length);
+            for (int l = 0; l< sizes.length-1; l++)
+                layer(l, l>0?outputs[l-1]:inputs, l<outputs.length?outputs[l]:ret);
+            return ret;
+        };
+    }
+
+    /**
+     * Returns a {@link Brain.BatchEvaluator batch evaluator} propagating the samples one by one
+     * through an {@link #newEvaluator() evaluator}.
+     * @param batchSize Number of samples of each batch.
+     * @return A new {@link Brain.BatchEvaluator}.
+     */
+    @Override
+    public BatchEvaluator newBatchEvaluator(int batchSize){
+        Evaluator evaluator = newEvaluator();
+        int nbInputs = sizes[0], nbOutputs = sizes[sizes.length-1];
+        double[] sample = new double[nbInputs];
+        double[] ret = new double[batchSize*nbOutputs];
+        return inputs -> {
+            if(inputs.length != batchSize*nbInputs)
+                throw new NonMatchingSizesException("FORWARD ERROR : Number of inputs incorrect. Expected : "
+                        +batchSize*nbInputs+", got : "+inputs.length+".");
+            for (int s = 0; s< batchSize; s++){
+                System.arraycopy(inputs, s*nbInputs, sample, 0, nbInputs);
+                System.arraycopy(evaluator.evaluate(sample), 0, ret, s*nbOutputs, nbOutputs);
+            }
+            return ret;
+        };
+    }
+
+    private void checkInputs(int length) throws NonMatchingSizesException {
+        if(length != sizes[0])
+            throw new NonMatchingSizesException("FORWARD ERROR : Number of inputs incorrect. Expected : "+sizes[0]+", got : "+length+".");
+    }
+
+    /**
+     * Computes the outputs of a layer : activation(weights*array + biases), in the same order as
+     * {@link Matrix#layer(double[], double[], double[], Activation, double[])}.
+     * @param l Index of the layer.
+     * @param array Outputs of the previous layer, or inputs.
+     * @param ret Array receiving the outputs of the layer. It must not be the array.
+     */
+    private void layer(int l, double[] array, double[] ret){
+        int cols = sizes[l], weights = weightOffsets[l], biases = biasOffsets[l];
+        for (int i = 0; i< ret.length; i++)
+            ret[i] = KERNELS.dot(doubles, weights+i*cols, array, 0, cols) + doubles.get(biases+i);
+        activations[l].apply(ret, ret);
+    }
+
+    /**
+     * @see #layer(int, double[], double[])
+     */
+    private void layer(int l, float[] array, float[] ret){
+        int cols = sizes[l], weights = weightOffsets[l], biases = biasOffsets[l];
+        for (int i = 0; i< ret.length; i++)
+            ret[i] = KERNELS.dot(floats, weights+i*cols, array, 0, cols) + floats.get(biases+i);
+        activations[l].apply(ret, ret);
+    }
+
+    @Override
+    public void back(double[] inputs, double[] targets){
+        throw readOnly();
+    }
+
+    @Override
+    public void backBatch(double[][] inputs, double[][] targets){
+        throw readOnly();
+    }
+
+    /**
+     * Copies the layers onto the heap, into a {@link NeuralNetwork neural network} of the same precision
+     * that can be trained.
+     * @return A new {@link NeuralNetwork} or {@link FloatNeuralNetwork}.
+     */
+    @Override
+    public Brain replicate(){
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(layers.capacity()+1024);
+            BinaryChannel out = BinaryChannel.writing(Channels.newChannel(bytes));
+            write(out);
+            out.flush();
+            BinaryChannel in = BinaryChannel.reading(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+            return floats != null?FloatNeuralNetwork.read(in):NeuralNetwork.read(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("MAPPED NEURAL NETWORK : The layers could not be copied.", e);
+        }
+    }
+
+    @Override
+    public Brain share(){
+        throw readOnly();
+    }
+
+    @Override
+    public void copyOf(Brain source){
+        throw readOnly();
+    }
+
+    @Override
+    public void averageOf(Brain[] replicas){
+        throw readOnly();
+    }
+
+    private static UnsupportedOperationException readOnly(){
+        return new UnsupportedOperationException("MAPPED NEURAL NETWORK : A mapped network can't be trained.");
+    }
+
+    /**
+     * Writes the layers as they are mapped, in the same layout as the {@link Brain brain} they were saved from.
+     */
+    @Override
+    public void write(BinaryChannel out) throws IOException {
+        NeuralNetwork.writeArchitecture(out, sizes, activations);
+        out.putDouble(learningRate);
+        out.putBytes(layers);
+    }
+
+    /**
+     * Serializes a copy on the heap, the mapped buffer not being serializable.
+     * @return {@link #replicate()}.
+     */
+    private Object writeReplace(){
+        return replicate();
+    }
+
+    /**
+     * Returns a short text of the dimensions of the {@link MappedNeuralNetwork mapped neural network}.
+     * @return A {@link String text}.
+     */
+    public String toString(){
+        StringBuilder sb = new StringBuilder("Mapped Neural Network")
+                .append(floats != null?" (single precision)":"").append(" :\n");
+        for (int l = 0; l< activations.length; l++)
+            sb.append("Layer #").append(l).append(" has ").append(sizes[l+1]).append(" neurones (")
+                    .append(activations[l]).append(").\n");
+        return sb.toString();
+    }
+}
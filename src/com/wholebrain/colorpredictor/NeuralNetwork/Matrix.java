@@ -4,6 +4,15 @@ import java.util.Arrays;
 import java.util.function.DoubleUnaryOperator;
 
 abstract class Matrix {
+    // Sizes of the blocks used by the tiled matrix product : a MC*KC block of the first matrix stays in the L2 cache,
+    // a KC*NR micro-panel of the second one stays in the L1 cache, and MR*NR accumulators stay in the registers.
+    private static final int MR = 4, NR = 4, MC = 96, KC = 256, NC = 1024;
+    private static final ThreadLocal<double[][]> PACKING_BUFFERS =
+            ThreadLocal.withInitial(() -> new double[][]{new double[MC*KC], new double[KC*NC], new double[MR*NR]});
+    private static final ThreadLocal<float[][]> FLOAT_PACKING_BUFFERS =
+            ThreadLocal.withInitial(() -> new float[][]{new float[MC*KC], new float[KC*NC], new float[MR*NR]});
+    // Reductions (dot and matrix-vector products) are delegated to the kernels chosen at start-up.
+    private static final Kernels KERNELS = Kernels.INSTANCE;
 
     /**
      * Returns the matrix product of two matrices.
@@ -18,21 +27,225 @@ abstract class Matrix {
             throw new NonMatchingSizesException("MATRIX PRODUCT(matrix1, matrix2) : matrix 1 has "+matrix1[0].length
                     +" columns while matrix 2 has "+matrix2.length+" rows.");
 
+        int rows1 = matrix1.length, cols1 = matrix2.length, cols2 = matrix2[0].length;
+        double[] flatRet = matrixProduct(flatten(matrix1), rows1, cols1, flatten(matrix2), cols2, new double[rows1*cols2]);
+        double[][] ret = new double[rows1][cols2];
+        for (int i = 0; i< rows1; i++)
+            System.arraycopy(flatRet, i*cols2, ret[i], 0, cols2);
+        return ret;
+    }
+
+    /**
+     * Writes the matrix product of two row-major flattened matrices into a given array.
+     * This is the path used by the batched propagations, computed by a cache-blocked, register-tiled product.
+     * @param matrix1 First matrix as a row-major double[rows1*cols1].
+     * @param rows1 Number of rows of the first matrix.
+     * @param cols1 Number of columns of the first matrix, which is the number of rows of the second one.
+     * @param matrix2 Second matrix as a row-major double[cols1*cols2].
+     * @param cols2 Number of columns of the second matrix.
+     * @param ret Matrix product as a row-major double[rows1*cols2]. It must not be one of the multiplied matrices.
+     * @return ret.
+     */
+    static double[] matrixProduct(double[] matrix1, int rows1, int cols1, double[] matrix2, int cols2, double[] ret)
+            throws NonMatchingSizesException {
+        if(matrix1.length!=rows1*cols1 || matrix2.length!=cols1*cols2 || ret.length!=rows1*cols2)
+            throw new NonMatchingSizesException("MATRIX PRODUCT(flat matrix1, flat matrix2) : matrix 1 has "+matrix1.length
+                    +" cells for ["+rows1+"]["+cols1+"], matrix 2 has "+matrix2.length+" cells for ["+cols1+"]["+cols2
+                    +"] and the result has "+ret.length+" cells.");
+
+        tiledProduct(matrix1, cols1, 1, matrix2, cols2, 1, ret, rows1, cols1, cols2);
+        return ret;
+    }
+
+    /**
+     * Writes the matrix product of a row-major flattened matrix by the transpose of another one into a given array.
+     * @param matrix1 First matrix as a row-major double[rows1*cols].
+     * @param rows1 Number of rows of the first matrix.
+     * @param cols Number of columns of both matrices.
+     * @param matrix2 Second matrix, not transposed, as a row-major double[rows2*cols].
+     * @param rows2 Number of rows of the second matrix.
+     * @param ret Matrix product as a row-major double[rows1*rows2]. It must not be one of the multiplied matrices.
+     * @return ret.
+     */
+    static double[] matrixProductTransposed(double[] matrix1, int rows1, int cols, double[] matrix2, int rows2, double[] ret)
+            throws NonMatchingSizesException {
+        if(matrix1.length!=rows1*cols || matrix2.length!=rows2*cols || ret.length!=rows1*rows2)
+            throw new NonMatchingSizesException("MATRIX PRODUCT TRANSPOSED(flat matrix1, flat matrix2) : matrix 1 has "+matrix1.length
+                    +" cells for ["+rows1+"]["+cols+"], matrix 2 has "+matrix2.length+" cells for ["+rows2+"]["+cols
+                    +"] and the result has "+ret.length+" cells.");
+
+        tiledProduct(matrix1, cols, 1, matrix2, 1, cols, ret, rows1, cols, rows2);
+        return ret;
+    }
+
+    /**
+     * Writes the matrix product of the transpose of a row-major flattened matrix by another one into a given array.
+     * @param matrix1 First matrix, not transposed, as a row-major double[rows*cols1].
+     * @param rows Number of rows of both matrices.
+     * @param cols1 Number of columns of the first matrix.
+     * @param matrix2 Second matrix as a row-major double[rows*cols2].
+     * @param cols2 Number of columns of the second matrix.
+     * @param ret Matrix product as a row-major double[cols1*cols2]. It must not be one of the multiplied matrices.
+     * @return ret.
+     */
+    static double[] transposedMatrixProduct(double[] matrix1, int rows, int cols1, double[] matrix2, int cols2, double[] ret)
+            throws NonMatchingSizesException {
+        if(matrix1.length!=rows*cols1 || matrix2.length!=rows*cols2 || ret.length!=cols1*cols2)
+            throw new NonMatchingSizesException("MATRIX TRANSPOSED PRODUCT(flat matrix1, flat matrix2) : matrix 1 has "+matrix1.length
+                    +" cells for ["+rows+"]["+cols1+"], matrix 2 has "+matrix2.length+" cells for ["+rows+"]["+cols2
+                    +"] and the result has "+ret.length+" cells.");
+
+        tiledProduct(matrix1, 1, cols1, matrix2, cols2, 1, ret, cols1, rows, cols2);
+        return ret;
+    }
 
-        double[][] ret = new double[matrix1.length][matrix2[0].length];
-        double cell;
-        for (int i = 0; i< ret.length; i++){
-            for (int j = 0; j< ret[0].length;j++){
-                // for each cell :
-                cell=0.0;
-                for (int x=0; x<matrix1[0].length;x++)
-                    cell+= matrix1[i][x] * matrix2[x][j];
-                ret[i][j] = cell;
+    // START TILED MATRIX PRODUCT
+
+    /**
+     * Cache-blocked, register-tiled matrix product ret = matrix1*matrix2, where each operand is read through its
+     * strides so that the transposed products share this same code.
+     * Panels of both matrices are packed into contiguous buffers, then a 4*4 block of the result
+     * is accumulated in local variables for a whole panel before being written.
+     * The cell [i][x] of the first matrix is matrix1[i*rowStride1 + x*colStride1],
+     * the cell [x][j] of the second one is matrix2[x*rowStride2 + j*colStride2].
+     * @param matrix1 First matrix, as a flattened double[].
+     * @param rowStride1 Distance between two rows of the first matrix.
+     * @param colStride1 Distance between two columns of the first matrix.
+     * @param matrix2 Second matrix, as a flattened double[].
+     * @param rowStride2 Distance between two rows of the second matrix.
+     * @param colStride2 Distance between two columns of the second matrix.
+     * @param ret Matrix product as a row-major double[rows*cols].
+     * @param rows Number of rows of the product.
+     * @param depth Number of columns of the first matrix and of rows of the second one.
+     * @param cols Number of columns of the product.
+     */
+    private static void tiledProduct(double[] matrix1, int rowStride1, int colStride1,
+                                     double[] matrix2, int rowStride2, int colStride2,
+                                     double[] ret, int rows, int depth, int cols){
+        if(depth == 0){
+            Arrays.fill(ret, 0, rows*cols, 0.0);
+            return;
+        }
+        double[][] buffers = PACKING_BUFFERS.get();
+        double[] packed1 = buffers[0], packed2 = buffers[1], edge = buffers[2];
+
+        for (int jc = 0; jc< cols; jc+= NC){
+            int nc = Math.min(NC, cols-jc);
+            for (int pc = 0; pc< depth; pc+= KC){
+                int kc = Math.min(KC, depth-pc);
+                boolean accumulate = pc > 0;
+                packColumns(matrix2, rowStride2, colStride2, pc, kc, jc, nc, packed2);
+                for (int ic = 0; ic< rows; ic+= MC){
+                    int mc = Math.min(MC, rows-ic);
+                    packRows(matrix1, rowStride1, colStride1, ic, mc, pc, kc, packed1);
+                    for (int jr = 0; jr< nc; jr+= NR){
+                        int nr = Math.min(NR, nc-jr);
+                        for (int ir = 0; ir< mc; ir+= MR){
+                            int mr = Math.min(MR, mc-ir);
+                            microKernel(packed1, ir*kc, packed2, jr*kc, kc,
+                                    ret, (ic+ir)*cols+jc+jr, cols, mr, nr, accumulate, edge);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Packs a mc*kc block of the first matrix as consecutive micro-panels of MR rows,
+     * each one stored column by column and padded with zeros.
+     */
+    private static void packRows(double[] matrix, int rowStride, int colStride,
+                                 int firstRow, int mc, int firstCol, int kc, double[] packed){
+        int index = 0;
+        for (int ir = 0; ir< mc; ir+= MR){
+            int mr = Math.min(MR, mc-ir);
+            for (int p = 0; p< kc; p++){
+                int offset = (firstRow+ir)*rowStride + (firstCol+p)*colStride;
+                for (int i = 0; i< mr; i++)
+                    packed[index+i] = matrix[offset + i*rowStride];
+                for (int i = mr; i< MR; i++)
+                    packed[index+i] = 0.0;
+                index+= MR;
             }
         }
-        return ret;
     }
 
+    /**
+     * Packs a kc*nc block of the second matrix as consecutive micro-panels of NR columns,
+     * each one stored row by row and padded with zeros.
+     */
+    private static void packColumns(double[] matrix, int rowStride, int colStride,
+                                    int firstRow, int kc, int firstCol, int nc, double[] packed){
+        int index = 0;
+        for (int jr = 0; jr< nc; jr+= NR){
+            int nr = Math.min(NR, nc-jr);
+            for (int p = 0; p< kc; p++){
+                int offset = (firstRow+p)*rowStride + (firstCol+jr)*colStride;
+                for (int j = 0; j< nr; j++)
+                    packed[index+j] = matrix[offset + j*colStride];
+                for (int j = nr; j< NR; j++)
+                    packed[index+j] = 0.0;
+                index+= NR;
+            }
+        }
+    }
+
+    /**
+     * Accumulates the product of a MR-row micro-panel by a NR-column micro-panel in 16 local variables,
+     * then writes (or adds, when accumulating over several depth blocks) the mr*nr valid cells into the result.
+     */
+    private static void microKernel(double[] packed1, int offset1, double[] packed2, int offset2, int kc,
+                                    double[] ret, int retOffset, int retStride, int mr, int nr,
+                                    boolean accumulate, double[] edge){
+        double c00 = 0.0, c01 = 0.0, c02 = 0.0, c03 = 0.0,
+                c10 = 0.0, c11 = 0.0, c12 = 0.0, c13 = 0.0,
+                c20 = 0.0, c21 = 0.0, c22 = 0.0, c23 = 0.0,
+                c30 = 0.0, c31 = 0.0, c32 = 0.0, c33 = 0.0;
+        for (int p = 0; p< kc; p++){
+            int a = offset1 + p*MR, b = offset2 + p*NR;
+            double a0 = packed1[a], a1 = packed1[a+1], a2 = packed1[a+2], a3 = packed1[a+3];
+            double b0 = packed2[b], b1 = packed2[b+1], b2 = packed2[b+2], b3 = packed2[b+3];
+            c00+= a0*b0; c01+= a0*b1; c02+= a0*b2; c03+= a0*b3;
+            c10+= a1*b0; c11+= a1*b1; c12+= a1*b2; c13+= a1*b3;
+            c20+= a2*b0; c21+= a2*b1; c22+= a2*b2; c23+= a2*b3;
+            c30+= a3*b0; c31+= a3*b1; c32+= a3*b2; c33+= a3*b3;
+        }
+
+        if(mr == MR && nr == NR){
+            int r0 = retOffset, r1 = r0+retStride, r2 = r1+retStride, r3 = r2+retStride;
+            if(accumulate){
+                ret[r0]+= c00; ret[r0+1]+= c01; ret[r0+2]+= c02; ret[r0+3]+= c03;
+                ret[r1]+= c10; ret[r1+1]+= c11; ret[r1+2]+= c12; ret[r1+3]+= c13;
+                ret[r2]+= c20; ret[r2+1]+= c21; ret[r2+2]+= c22; ret[r2+3]+= c23;
+                ret[r3]+= c30; ret[r3+1]+= c31; ret[r3+2]+= c32; ret[r3+3]+= c33;
+            }else{
+                ret[r0] = c00; ret[r0+1] = c01; ret[r0+2] = c02; ret[r0+3] = c03;
+                ret[r1] = c10; ret[r1+1] = c11; ret[r1+2] = c12; ret[r1+3] = c13;
+                ret[r2] = c20; ret[r2+1] = c21; ret[r2+2] = c22; ret[r2+3] = c23;
+                ret[r3] = c30; ret[r3+1] = c31; ret[r3+2] = c32; ret[r3+3] = c33;
+            }
+            return;
+        }
+
+        // edge of the result : only the mr*nr valid cells are written.
+        edge[0] = c00; edge[1] = c01; edge[2] = c02; edge[3] = c03;
+        edge[4] = c10; edge[5] = c11; edge[6] = c12; edge[7] = c13;
+        edge[8] = c20; edge[9] = c21; edge[10] = c22; edge[11] = c23;
+        edge[12] = c30; edge[13] = c31; edge[14] = c32; edge[15] = c33;
+        for (int i = 0; i< mr; i++){
+            int offset = retOffset + i*retStride;
+            for (int j = 0; j< nr; j++){
+                if(accumulate)
+                    ret[offset+j]+= edge[i*NR+j];
+                else
+                    ret[offset+j] = edge[i*NR+j];
+            }
+        }
+    }
+
+    // END TILED MATRIX PRODUCT
+
     /**
      * Returns the matrix product of an array by a matrix.
      * The size of the array must equal the number of columns of the matrix.
@@ -97,6 +310,97 @@ abstract class Matrix {
 
     }
 
+    /**
+     * Returns the matrix product of a row-major flattened matrix by an array.
+     * The matrix has {@link int rows} rows and as many columns as the length of the array.
+     * @param matrix Matrix to multiply as a row-major double[rows*array.length].
+     * @param rows Number of rows of the matrix.
+     * @param array Array to multiply as a double[].
+     * @return Matrix product as a double[rows].
+     */
+    static double[] matrixProduct(double[] matrix, int rows, double[] array) throws NonMatchingSizesException {
+        if(matrix.length!=rows*array.length)
+            throw new NonMatchingSizesException("MATRIX PRODUCT(flat matrix, array) : The matrix has "+matrix.length
+                    +" cells while "+rows+" rows of "+array.length+" columns are expected.");
+
+        double[] ret = new double[rows];
+        KERNELS.matrixVector(matrix, rows, array.length, array, ret);
+        return ret;
+    }
+
+    /**
+     * Writes the matrix product of a row-major flattened matrix by an array into a given array.
+     * @see #matrixProduct(double[], int, double[])
+     * @param matrix Matrix to multiply as a row-major double[rows*array.length].
+     * @param rows Number of rows of the matrix.
+     * @param array Array to multiply as a double[].
+     * @param ret Array of length rows receiving the product. It must not be the multiplied array.
+     * @return ret.
+     */
+    static double[] matrixProduct(double[] matrix, int rows, double[] array, double[] ret) throws NonMatchingSizesException {
+        if(matrix.length!=rows*array.length)
+            throw new NonMatchingSizesException("MATRIX PRODUCT(flat matrix, array) : The matrix has "+matrix.length
+                    +" cells while "+rows+" rows of "+array.length+" columns are expected.");
+
+        KERNELS.matrixVector(matrix, rows, array.length, array, ret);
+        return ret;
+    }
+
+    /**
+     * Writes the product of the transpose of a row-major flattened matrix by an array into a given array,
+     * reading the matrix in its own layout instead of transposing it first.
+     * The matrix has as many rows as the length of the array.
+     * @param matrix Matrix to transpose and multiply as a row-major double[array.length*ret.length].
+     * @param rows Number of rows of the matrix, which becomes the number of columns once transposed.
+     * @param array Array to multiply as a double[rows].
+     * @param ret Array receiving the product, of length the number of columns of the matrix.
+     *            It must not be the multiplied array.
+     * @return ret.
+     */
+    static double[] transposedMatrixProduct(double[] matrix, int rows, double[] array, double[] ret)
+            throws NonMatchingSizesException {
+        if(array.length!=rows || matrix.length!=rows*ret.length)
+            throw new NonMatchingSizesException("MATRIX TRANSPOSED PRODUCT(flat matrix, array) : The matrix has "+matrix.length
+                    +" cells while "+rows+" rows of "+ret.length+" columns are expected, and the array has "+array.length+" cells.");
+
+        KERNELS.transposedMatrixVector(matrix, rows, ret.length, array, ret);
+        return ret;
+    }
+
+    /**
+     * Returns the outer product of two arrays as a row-major flattened matrix.
+     * The result is necessarily a matrix of array1.length rows and array2.length columns.
+     * @param array1 Array to multiply as a double[].
+     * @param array2 Array to multiply as a double[].
+     * @return Matrix product as a double[array1.length*array2.length].
+     */
+    static double[] outerProduct(double[] array1, double[] array2){
+        double[] ret = new double[array1.length*array2.length];
+        for (int i =0; i<array1.length; i++){
+            int offset = i*array2.length;
+            for (int j = 0; j<array2.length; j++)
+                ret[offset+j] = array1[i]*array2[j];
+        }
+        return ret;
+    }
+
+    /**
+     * Writes the outer product of two arrays as a row-major flattened matrix into a given array.
+     * @see #outerProduct(double[], double[])
+     * @param array1 Array to multiply as a double[].
+     * @param array2 Array to multiply as a double[].
+     * @param ret Array of length array1.length*array2.length receiving the product.
+     * @return ret.
+     */
+    static double[] outerProduct(double[] array1, double[] array2, double[] ret){
+        for (int i =0; i<array1.length; i++){
+            int offset = i*array2.length;
+            for (int j = 0; j<array2.length; j++)
+                ret[offset+j] = array1[i]*array2[j];
+        }
+        return ret;
+    }
+
     /**
      * Return the term by term addition of two matrices.
      * The two matrices must have the both same sizes.
@@ -136,6 +440,24 @@ abstract class Matrix {
         return ret;
     }
 
+    /**
+     * Writes the term by term addition of two arrays into a given array, which can be one of them.
+     * @see #add(double[], double[])
+     * @param array1 double[]
+     * @param array2 double[]
+     * @param ret double[] receiving the addition.
+     * @return ret.
+     */
+    static double[] add(double[] array1, double[] array2, double[] ret) throws NonMatchingSizesException {
+        if(array1.length!=array2.length)
+            throw new NonMatchingSizesException("MATRIX ADD(array1, array2) : Array1 has size "+array1.length
+                    +" while Array2 has size "+array2.length+".");
+
+        for (int i =0; i< array1.length; i++)
+            ret[i] = array1[i]+ array2[i];
+        return ret;
+    }
+
     /**
      * Return the term by term subtraction of two arrays.
      * Both arrays must have the same length.
@@ -154,6 +476,24 @@ abstract class Matrix {
         return ret;
     }
 
+    /**
+     * Writes the term by term subtraction of two arrays into a given array, which can be one of them.
+     * @see #substract(double[], double[])
+     * @param array1 double[]
+     * @param array2 double[]
+     * @param ret double[] receiving the subtraction array1 - array2.
+     * @return ret.
+     */
+    static double[] substract(double[] array1, double[] array2, double[] ret) throws NonMatchingSizesException {
+        if(array1.length!=array2.length)
+            throw new NonMatchingSizesException("MATRIX SUBSTRACT(array1, array2) : Array1 has size "+array1.length
+                    +" while Array2 has size "+array2.length+".");
+
+        for (int i =0; i< array1.length; i++)
+            ret[i] = array1[i]-array2[i];
+        return ret;
+    }
+
     /**
      * Return the term by term multiplication of two arrays.
      * Both arrays must have the same length.
@@ -172,6 +512,24 @@ abstract class Matrix {
         return ret;
     }
 
+    /**
+     * Writes the term by term multiplication of two arrays into a given array, which can be one of them.
+     * @see #multiply(double[], double[])
+     * @param array1 double[]
+     * @param array2 double[]
+     * @param ret double[] receiving the multiplication array1 * array2.
+     * @return ret.
+     */
+    static double[] multiply(double[] array1, double[] array2, double[] ret) throws NonMatchingSizesException {
+        if(array1.length!=array2.length)
+            throw new NonMatchingSizesException("MATRIX MULTIPLY(array1, array2) : Array1 has size "+array1.length
+                    +" while Array2 has size "+array2.length+".");
+
+        for (int i =0; i< array1.length; i++)
+            ret[i] = array1[i]*array2[i];
+        return ret;
+    }
+
     static double[] externalProduct(double[] array, double factor){
         double[] ret = new double[array.length];
         for (int i=0; i< ret.length; i++)
@@ -179,6 +537,12 @@ abstract class Matrix {
         return ret;
     }
 
+    static double[] externalProduct(double[] array, double factor, double[] ret){
+        for (int i=0; i< array.length; i++)
+            ret[i] = array[i] * factor;
+        return ret;
+    }
+
     /**
      * Apply a function to all number in an array.
      * @param array Array, as a double[], to compute.
@@ -201,6 +565,412 @@ abstract class Matrix {
         return ret;
     }
 
+    /**
+     * Returns the transpose of a row-major flattened matrix.
+     * @param matrix Matrix as a row-major double[rows*cols].
+     * @param rows Number of rows of the matrix.
+     * @param cols Number of columns of the matrix.
+     * @return Transposed matrix as a row-major double[cols*rows].
+     */
+    static double[] transpose(double[] matrix, int rows, int cols) {
+        double[] ret = new double[matrix.length];
+        for (int  i=0; i< rows; i++)
+            for (int j = 0; j< cols; j++)
+                ret[j*rows+i] = matrix[i*cols+j];
+        return ret;
+    }
+
+    /**
+     * Writes the transpose of a row-major flattened matrix into a given array.
+     * @see #transpose(double[], int, int)
+     * @param matrix Matrix as a row-major double[rows*cols].
+     * @param rows Number of rows of the matrix.
+     * @param cols Number of columns of the matrix.
+     * @param ret Array of the same length receiving the transposed matrix. It must not be the matrix itself.
+     * @return ret.
+     */
+    static double[] transpose(double[] matrix, int rows, int cols, double[] ret) {
+        for (int  i=0; i< rows; i++)
+            for (int j = 0; j< cols; j++)
+                ret[j*rows+i] = matrix[i*cols+j];
+        return ret;
+    }
+
+    // START FUSED KERNELS
+
+    /**
+     * Computes the outputs of a layer : activation(matrix*array + biases). Nothing is allocated.
+     * The sums are written first and the {@link Activation activation} is applied to all of them in one call,
+     * so that its loop is not shared with the other activations.
+     * @param matrix Weights of the layer as a row-major double[biases.length*array.length].
+     * @param biases Biases of the layer, one per row of the matrix.
+     * @param array Inputs of the layer as a double[].
+     * @param activation {@link Activation} applied to each neurone.
+     * @param ret Array of length biases.length receiving the outputs. It must not be the inputs array.
+     * @return ret.
+     */
+    static double[] layer(double[] matrix, double[] biases, double[] array, Activation activation, double[] ret)
+            throws NonMatchingSizesException {
+        if(matrix.length!=biases.length*array.length)
+            throw new NonMatchingSizesException("MATRIX LAYER(flat matrix, biases, array) : The matrix has "+matrix.length
+                    +" cells while "+biases.length+" rows of "+array.length+" columns are expected.");
+
+        int cols = array.length;
+        for (int i =0; i< biases.length; i++)
+            ret[i] = KERNELS.dot(matrix, i*cols, array, 0, cols) + biases[i];
+        activation.apply(ret, ret);
+        return ret;
+    }
+
+    /**
+     * Adds factor * (array1 outer product array2) straight into a row-major flattened matrix, without building the outer product.
+     * @param matrix Matrix to update as a row-major double[array1.length*array2.length].
+     * @param factor Factor applied to the outer product, for example the learning rate.
+     * @param array1 Array giving the rows, as a double[].
+     * @param array2 Array giving the columns, as a double[].
+     */
+    static void addOuterProduct(double[] matrix, double factor, double[] array1, double[] array2)
+            throws NonMatchingSizesException {
+        if(matrix.length!=array1.length*array2.length)
+            throw new NonMatchingSizesException("MATRIX ADD OUTER PRODUCT(flat matrix, array1, array2) : The matrix has "
+                    +matrix.length+" cells while "+array1.length+" rows of "+array2.length+" columns are expected.");
+
+        int cols = array2.length;
+        for (int i =0; i<array1.length; i++){
+            double rowFactor = factor*array1[i];
+            int offset = i*cols;
+            for (int j = 0; j<cols; j++)
+                matrix[offset+j] += rowFactor*array2[j];
+        }
+    }
+
+    /**
+     * Adds factor*array straight into another array.
+     * @param ret Array to update, as a double[].
+     * @param factor Factor applied to the added array, for example the learning rate.
+     * @param array Array to add, as a double[].
+     */
+    static void addExternalProduct(double[] ret, double factor, double[] array) throws NonMatchingSizesException {
+        if(ret.length!=array.length)
+            throw new NonMatchingSizesException("MATRIX ADD EXTERNAL PRODUCT(ret, array) : Ret has size "+ret.length
+                    +" while Array has size "+array.length+".");
+
+        for (int i =0; i< array.length; i++)
+            ret[i] += array[i] * factor;
+    }
+
+    /**
+     * Adds an array to each row of a row-major flattened matrix and applies an {@link Activation activation}, in place.
+     * Used to turn the matrix products of a batch into the outputs of a layer.
+     * @param matrix Matrix to update as a row-major double[rows*array.length].
+     * @param array Array added to each row, for example the biases.
+     * @param activation {@link Activation} applied to each result.
+     */
+    static void addToRowsAndMap(double[] matrix, double[] array, Activation activation){
+        int cols = array.length;
+        for (int offset = 0; offset< matrix.length; offset+= cols)
+            for (int j = 0; j< cols; j++)
+                matrix[offset+j] += array[j];
+        activation.apply(matrix, matrix);
+    }
+
+    // END FUSED KERNELS
+
+    /**
+     * Copies a matrix into one row-major {@link double[] array}.
+     * @param matrix Matrix as a double[rows][cols].
+     * @return Matrix as a row-major double[rows*cols].
+     */
+    static double[] flatten(double[][] matrix){
+        int cols = matrix[0].length;
+        double[] ret = new double[matrix.length*cols];
+        for (int i = 0; i< matrix.length; i++)
+            System.arraycopy(matrix[i], 0, ret, i*cols, cols);
+        return ret;
+    }
+
+    /**
+     * Writes the term by term sum of all the rows of a row-major flattened matrix into a given array.
+     * @param matrix Matrix as a row-major double[rows*ret.length].
+     * @param ret Array receiving the sum, its length being the number of columns of the matrix.
+     * @return ret.
+     */
+    static double[] sumRows(double[] matrix, double[] ret){
+        int cols = ret.length;
+        Arrays.fill(ret, 0.0);
+        for (int offset = 0; offset< matrix.length; offset+= cols)
+            for (int j = 0; j< cols; j++)
+                ret[j]+= matrix[offset+j];
+        return ret;
+    }
+
+    // START SINGLE PRECISION KERNELS
+    // Same operations as above on float[], used by the FloatNeuralNetwork. Sums are accumulated in float.
+
+    /**
+     * @see #layer(double[], double[], double[], Activation, double[])
+     */
+    static float[] layer(float[] matrix, float[] biases, float[] array, Activation activation, float[] ret)
+            throws NonMatchingSizesException {
+        if(matrix.length!=biases.length*array.length)
+            throw new NonMatchingSizesException("MATRIX LAYER(flat matrix, biases, array) : The matrix has "+matrix.length
+                    +" cells while "+biases.length+" rows of "+array.length+" columns are expected.");
+
+        int cols = array.length;
+        for (int i =0; i< biases.length; i++)
+            ret[i] = KERNELS.dot(matrix, i*cols, array, 0, cols) + biases[i];
+        activation.apply(ret, ret);
+        return ret;
+    }
+
+    /**
+     * @see #transposedMatrixProduct(double[], int, double[], double[])
+     */
+    static float[] transposedMatrixProduct(float[] matrix, int rows, float[] array, float[] ret)
+            throws NonMatchingSizesException {
+        if(array.length!=rows || matrix.length!=rows*ret.length)
+            throw new NonMatchingSizesException("MATRIX TRANSPOSED PRODUCT(flat matrix, array) : The matrix has "+matrix.length
+                    +" cells while "+rows+" rows of "+ret.length+" columns are expected, and the array has "+array.length+" cells.");
+
+        KERNELS.transposedMatrixVector(matrix, rows, ret.length, array, ret);
+        return ret;
+    }
+
+    /**
+     * @see #substract(double[], double[], double[])
+     */
+    static float[] substract(float[] array1, float[] array2, float[] ret) throws NonMatchingSizesException {
+        if(array1.length!=array2.length)
+            throw new NonMatchingSizesException("MATRIX SUBSTRACT(array1, array2) : Array1 has size "+array1.length
+                    +" while Array2 has size "+array2.length+".");
+
+        for (int i =0; i< array1.length; i++)
+            ret[i] = array1[i]-array2[i];
+        return ret;
+    }
+
+    /**
+     * @see #addOuterProduct(double[], double, double[], double[])
+     */
+    static void addOuterProduct(float[] matrix, float factor, float[] array1, float[] array2)
+            throws NonMatchingSizesException {
+        if(matrix.length!=array1.length*array2.length)
+            throw new NonMatchingSizesException("MATRIX ADD OUTER PRODUCT(flat matrix, array1, array2) : The matrix has "
+                    +matrix.length+" cells while "+array1.length+" rows of "+array2.length+" columns are expected.");
+
+        int cols = array2.length;
+        for (int i =0; i<array1.length; i++){
+            float rowFactor = factor*array1[i];
+            int offset = i*cols;
+            for (int j = 0; j<cols; j++)
+                matrix[offset+j] += rowFactor*array2[j];
+        }
+    }
+
+    /**
+     * @see #addExternalProduct(double[], double, double[])
+     */
+    static void addExternalProduct(float[] ret, float factor, float[] array) throws NonMatchingSizesException {
+        if(ret.length!=array.length)
+            throw new NonMatchingSizesException("MATRIX ADD EXTERNAL PRODUCT(ret, array) : Ret has size "+ret.length
+                    +" while Array has size "+array.length+".");
+
+        for (int i =0; i< array.length; i++)
+            ret[i] += array[i] * factor;
+    }
+
+    /**
+     * @see #addToRowsAndMap(double[], double[], Activation)
+     */
+    static void addToRowsAndMap(float[] matrix, float[] array, Activation activation){
+        int cols = array.length;
+        for (int offset = 0; offset< matrix.length; offset+= cols)
+            for (int j = 0; j< cols; j++)
+                matrix[offset+j] += array[j];
+        activation.apply(matrix, matrix);
+    }
+
+    /**
+     * @see #sumRows(double[], double[])
+     */
+    static float[] sumRows(float[] matrix, float[] ret){
+        int cols = ret.length;
+        Arrays.fill(ret, 0f);
+        for (int offset = 0; offset< matrix.length; offset+= cols)
+            for (int j = 0; j< cols; j++)
+                ret[j]+= matrix[offset+j];
+        return ret;
+    }
+
+    /**
+     * @see #matrixProduct(double[], int, int, double[], int, double[])
+     */
+    static float[] matrixProduct(float[] matrix1, int rows1, int cols1, float[] matrix2, int cols2, float[] ret)
+            throws NonMatchingSizesException {
+        if(matrix1.length!=rows1*cols1 || matrix2.length!=cols1*cols2 || ret.length!=rows1*cols2)
+            throw new NonMatchingSizesException("MATRIX PRODUCT(flat matrix1, flat matrix2) : matrix 1 has "+matrix1.length
+                    +" cells for ["+rows1+"]["+cols1+"], matrix 2 has "+matrix2.length+" cells for ["+cols1+"]["+cols2
+                    +"] and the result has "+ret.length+" cells.");
+
+        tiledProduct(matrix1, cols1, 1, matrix2, cols2, 1, ret, rows1, cols1, cols2);
+        return ret;
+    }
+
+    /**
+     * @see #matrixProductTransposed(double[], int, int, double[], int, double[])
+     */
+    static float[] matrixProductTransposed(float[] matrix1, int rows1, int cols, float[] matrix2, int rows2, float[] ret)
+            throws NonMatchingSizesException {
+        if(matrix1.length!=rows1*cols || matrix2.length!=rows2*cols || ret.length!=rows1*rows2)
+            throw new NonMatchingSizesException("MATRIX PRODUCT TRANSPOSED(flat matrix1, flat matrix2) : matrix 1 has "+matrix1.length
+                    +" cells for ["+rows1+"]["+cols+"], matrix 2 has "+matrix2.length+" cells for ["+rows2+"]["+cols
+                    +"] and the result has "+ret.length+" cells.");
+
+        tiledProduct(matrix1, cols, 1, matrix2, 1, cols, ret, rows1, cols, rows2);
+        return ret;
+    }
+
+    /**
+     * @see #transposedMatrixProduct(double[], int, int, double[], int, double[])
+     */
+    static float[] transposedMatrixProduct(float[] matrix1, int rows, int cols1, float[] matrix2, int cols2, float[] ret)
+            throws NonMatchingSizesException {
+        if(matrix1.length!=rows*cols1 || matrix2.length!=rows*cols2 || ret.length!=cols1*cols2)
+            throw new NonMatchingSizesException("MATRIX TRANSPOSED PRODUCT(flat matrix1, flat matrix2) : matrix 1 has "+matrix1.length
+                    +" cells for ["+rows+"]["+cols1+"], matrix 2 has "+matrix2.length+" cells for ["+rows+"]["+cols2
+                    +"] and the result has "+ret.length+" cells.");
+
+        tiledProduct(matrix1, 1, cols1, matrix2, cols2, 1, ret, cols1, rows, cols2);
+        return ret;
+    }
+
+    /**
+     * @see #tiledProduct(double[], int, int, double[], int, int, double[], int, int, int)
+     */
+    private static void tiledProduct(float[] matrix1, int rowStride1, int colStride1,
+                                     float[] matrix2, int rowStride2, int colStride2,
+                                     float[] ret, int rows, int depth, int cols){
+        if(depth == 0){
+            Arrays.fill(ret, 0, rows*cols, 0f);
+            return;
+        }
+        float[][] buffers = FLOAT_PACKING_BUFFERS.get();
+        float[] packed1 = buffers[0], packed2 = buffers[1], edge = buffers[2];
+
+        for (int jc = 0; jc< cols; jc+= NC){
+            int nc = Math.min(NC, cols-jc);
+            for (int pc = 0; pc< depth; pc+= KC){
+                int kc = Math.min(KC, depth-pc);
+                boolean accumulate = pc > 0;
+                packColumns(matrix2, rowStride2, colStride2, pc, kc, jc, nc, packed2);
+                for (int ic = 0; ic< rows; ic+= MC){
+                    int mc = Math.min(MC, rows-ic);
+                    packRows(matrix1, rowStride1, colStride1, ic, mc, pc, kc, packed1);
+                    for (int jr = 0; jr< nc; jr+= NR){
+                        int nr = Math.min(NR, nc-jr);
+                        for (int ir = 0; ir< mc; ir+= MR){
+                            int mr = Math.min(MR, mc-ir);
+                            microKernel(packed1, ir*kc, packed2, jr*kc, kc,
+                                    ret, (ic+ir)*cols+jc+jr, cols, mr, nr, accumulate, edge);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @see #packRows(double[], int, int, int, int, int, int, double[])
+     */
+    private static void packRows(float[] matrix, int rowStride, int colStride,
+                                 int firstRow, int mc, int firstCol, int kc, float[] packed){
+        int index = 0;
+        for (int ir = 0; ir< mc; ir+= MR){
+            int mr = Math.min(MR, mc-ir);
+            for (int p = 0; p< kc; p++){
+                int offset = (firstRow+ir)*rowStride + (firstCol+p)*colStride;
+                for (int i = 0; i< mr; i++)
+                    packed[index+i] = matrix[offset + i*rowStride];
+                for (int i = mr; i< MR; i++)
+                    packed[index+i] = 0f;
+                index+= MR;
+            }
+        }
+    }
+
+    /**
+     * @see #packColumns(double[], int, int, int, int, int, int, double[])
+     */
+    private static void packColumns(float[] matrix, int rowStride, int colStride,
+                                    int firstRow, int kc, int firstCol, int nc, float[] packed){
+        int index = 0;
+        for (int jr = 0; jr< nc; jr+= NR){
+            int nr = Math.min(NR, nc-jr);
+            for (int p = 0; p< kc; p++){
+                int offset = (firstRow+p)*rowStride + (firstCol+jr)*colStride;
+                for (int j = 0; j< nr; j++)
+                    packed[index+j] = matrix[offset + j*colStride];
+                for (int j = nr; j< NR; j++)
+                    packed[index+j] = 0f;
+                index+= NR;
+            }
+        }
+    }
+
+    /**
+     * @see #microKernel(double[], int, double[], int, int, double[], int, int, int, int, boolean, double[])
+     */
+    private static void microKernel(float[] packed1, int offset1, float[] packed2, int offset2, int kc,
+                                    float[] ret, int retOffset, int retStride, int mr, int nr,
+                                    boolean accumulate, float[] edge){
+        float c00 = 0f, c01 = 0f, c02 = 0f, c03 = 0f,
+                c10 = 0f, c11 = 0f, c12 = 0f, c13 = 0f,
+                c20 = 0f, c21 = 0f, c22 = 0f, c23 = 0f,
+                c30 = 0f, c31 = 0f, c32 = 0f, c33 = 0f;
+        for (int p = 0; p< kc; p++){
+            int a = offset1 + p*MR, b = offset2 + p*NR;
+            float a0 = packed1[a], a1 = packed1[a+1], a2 = packed1[a+2], a3 = packed1[a+3];
+            float b0 = packed2[b], b1 = packed2[b+1], b2 = packed2[b+2], b3 = packed2[b+3];
+            c00+= a0*b0; c01+= a0*b1; c02+= a0*b2; c03+= a0*b3;
+            c10+= a1*b0; c11+= a1*b1; c12+= a1*b2; c13+= a1*b3;
+            c20+= a2*b0; c21+= a2*b1; c22+= a2*b2; c23+= a2*b3;
+            c30+= a3*b0; c31+= a3*b1; c32+= a3*b2; c33+= a3*b3;
+        }
+
+        if(mr == MR && nr == NR){
+            int r0 = retOffset, r1 = r0+retStride, r2 = r1+retStride, r3 = r2+retStride;
+            if(accumulate){
+                ret[r0]+= c00; ret[r0+1]+= c01; ret[r0+2]+= c02; ret[r0+3]+= c03;
+                ret[r1]+= c10; ret[r1+1]+= c11; ret[r1+2]+= c12; ret[r1+3]+= c13;
+                ret[r2]+= c20; ret[r2+1]+= c21; ret[r2+2]+= c22; ret[r2+3]+= c23;
+                ret[r3]+= c30; ret[r3+1]+= c31; ret[r3+2]+= c32; ret[r3+3]+= c33;
+            }else{
+                ret[r0] = c00; ret[r0+1] = c01; ret[r0+2] = c02; ret[r0+3] = c03;
+                ret[r1] = c10; ret[r1+1] = c11; ret[r1+2] = c12; ret[r1+3] = c13;
+                ret[r2] = c20; ret[r2+1] = c21; ret[r2+2] = c22; ret[r2+3] = c23;
+                ret[r3] = c30; ret[r3+1] = c31; ret[r3+2] = c32; ret[r3+3] = c33;
+            }
+            return;
+        }
+
+        // edge of the result : only the mr*nr valid cells are written.
+        edge[0] = c00; edge[1] = c01; edge[2] = c02; edge[3] = c03;
+        edge[4] = c10; edge[5] = c11; edge[6] = c12; edge[7] = c13;
+        edge[8] = c20; edge[9] = c21; edge[10] = c22; edge[11] = c23;
+        edge[12] = c30; edge[13] = c31; edge[14] = c32; edge[15] = c33;
+        for (int i = 0; i< mr; i++){
+            int offset = retOffset + i*retStride;
+            for (int j = 0; j< nr; j++){
+                if(accumulate)
+                    ret[offset+j]+= edge[i*NR+j];
+                else
+                    ret[offset+j] = edge[i*NR+j];
+            }
+        }
+    }
+
+    // END SINGLE PRECISION KERNELS
+
     static double sum(double[]array){
         double ret = 0.0;
         for (double d : array)
@@ -1,35 +1,121 @@
 package com.wholebrain.colorpredictor.NeuralNetwork;
 
-import java.io.Serializable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.function.DoubleUnaryOperator;
 
 /**
  * Basic neural network which can take as many inputs, outputs and hidden layers as desired.
+ * Each layer is stored as one row-major {@link double[] array} : the weight linking the input {@link int i}
+ * to the neurone {@link int n} of the layer {@link int l} is {@code weights[l][n*sizes[l]+i]}.
  */
-class NeuralNetwork implements Serializable {
-    private double[][][] weights;
+class NeuralNetwork implements Brain {
+    private static final long serialVersionUID = 5954007088199206248L;
+    /**
+     * The serialized form is still the nested one, so that the nns files saved before the flat storage can be read.
+     * The former activations of these files are serializable lambdas, which are only read back through
+     * the streams of {@code NnsFile.objectInputStream}.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("weights", double[][][].class),
+            new ObjectStreamField("biases", double[][].class),
+            new ObjectStreamField("learningRate", double.class),
+            new ObjectStreamField("activation", DoubleUnaryOperator.class),
+            new ObjectStreamField("derivatedActivation", DoubleUnaryOperator.class),
+            new ObjectStreamField("activations", int[].class)
+    };
+    // Bounds of the architectures read from a binary file : the largest array of weights of a layer.
+    // The memory is bounded by the size of the file, see checkRemaining.
+    static final int MAX_LAYERS = 1024, MAX_LAYER_SIZE = Integer.MAX_VALUE-8;
+    // sizes[0] is the number of inputs, sizes[l+1] the number of neurones of the layer l.
+    private int[] sizes;
+    private double[][] weights;
     private double[][] biases;
     private double learningRate;
-    private DoubleUnaryOperator activation, derivatedActivation;
+    private Activation[] activations;
+    private transient Workspace workspace;
+    private transient BatchWorkspace batchWorkspace;
 
+    /**
+     * Creates a {@link NeuralNetwork neural network} whose layers all use the {@link Activation#SIGMOID sigmoid}.
+     * @param nbInputs Number of inputs.
+     * @param hiddenArchitecture Number of neurones of each hidden layer.
+     * @param nbOutputs Number of outputs.
+     * @param learningRate Factor applied to the gradients.
+     */
     NeuralNetwork(int nbInputs, int[] hiddenArchitecture, int nbOutputs, double learningRate){
+        this(nbInputs, hiddenArchitecture, nbOutputs, learningRate, sigmoids(hiddenArchitecture.length+1));
+    }
+
+    /**
+     * Creates a {@link NeuralNetwork neural network} with one {@link Activation activation} per layer.
+     * @param nbInputs Number of inputs.
+     * @param hiddenArchitecture Number of neurones of each hidden layer.
+     * @param nbOutputs Number of outputs.
+     * @param learningRate Factor applied to the gradients.
+     * @param activations {@link Activation} of each hidden layer, then of the outputs layer.
+     */
+    NeuralNetwork(int nbInputs, int[] hiddenArchitecture, int nbOutputs, double learningRate, Activation[] activations){
+        this(nbInputs, hiddenArchitecture, nbOutputs, learningRate, activations, new Random());
+    }
+
+    /**
+     * Creates a {@link NeuralNetwork neural network} with one {@link Activation activation} per layer,
+     * whose initial weights and biases are drawn from the given {@link Random random}.
+     * @param nbInputs Number of inputs.
+     * @param hiddenArchitecture Number of neurones of each hidden layer.
+     * @param nbOutputs Number of outputs.
+     * @param learningRate Factor applied to the gradients.
+     * @param activations {@link Activation} of each hidden layer, then of the outputs layer.
+     * @param random {@link Random} drawing the initial weights and biases.
+     */
+    NeuralNetwork(int nbInputs, int[] hiddenArchitecture, int nbOutputs, double learningRate, Activation[] activations,
+                  Random random){
+        if(activations.length != hiddenArchitecture.length+1)
+            throw new IllegalArgumentException("NEURAL NETWORK : "+activations.length+" activations for "
+                    +(hiddenArchitecture.length+1)+" layers.");
 
         this.learningRate=learningRate;
-        weights = new double[hiddenArchitecture.length+1][][];
-        biases = new double[hiddenArchitecture.length+1][];
-        activation = (DoubleUnaryOperator & Serializable)x -> 1.0/(1.0+Math.exp(-x));
-        derivatedActivation = (DoubleUnaryOperator & Serializable)y -> y*(1.0-y);
+        this.activations = activations.clone();
+        sizes = new int[hiddenArchitecture.length+2];
+        sizes[0] = nbInputs;
+        System.arraycopy(hiddenArchitecture, 0, sizes, 1, hiddenArchitecture.length);
+        sizes[sizes.length-1] = nbOutputs;
+        weights = new double[sizes.length-1][];
+        biases = new double[sizes.length-1][];
 
         // initialize Layers
-        weights[0] = createLayer(hiddenArchitecture[0], nbInputs);
-        biases[0] = createBiases(hiddenArchitecture[0]);
-        for (int l = 1; l< hiddenArchitecture.length; l++){
-            weights[l] = createLayer(hiddenArchitecture[l],hiddenArchitecture[l-1]);
-            biases[l] = createBiases(hiddenArchitecture[l]);
+        for (int l = 0; l< weights.length; l++){
+            weights[l] = createLayer(random, sizes[l+1], sizes[l]);
+            biases[l] = createBiases(random, sizes[l+1]);
+        }
+    }
+
+    /**
+     * Creates a copy of a {@link NeuralNetwork neural network}, with its own buffers.
+     * @param source {@link NeuralNetwork} to copy.
+     * @param shareLayers If true, the weights and biases are the very arrays of the source. Otherwise they are copied.
+     */
+    private NeuralNetwork(NeuralNetwork source, boolean shareLayers){
+        learningRate = source.learningRate;
+        sizes = source.sizes.clone();
+        activations = source.activations.clone();
+        if(shareLayers){
+            weights = source.weights;
+            biases = source.biases;
+            return;
+        }
+        weights = new double[source.weights.length][];
+        biases = new double[source.biases.length][];
+        for (int l = 0; l< weights.length; l++){
+            weights[l] = source.weights[l].clone();
+            biases[l] = source.biases[l].clone();
         }
-        weights[weights.length-1] = createLayer(nbOutputs, hiddenArchitecture[hiddenArchitecture.length-1]);
-        biases[biases.length-1] = createBiases(nbOutputs);
     }
 
     /**
@@ -38,104 +124,538 @@ class NeuralNetwork implements Serializable {
      * @return {@link double[] outputs}.
      * @throws NonMatchingSizesException Custom Exception in the present package.
      */
-    double[] forward(double[] inputs) throws NonMatchingSizesException {
-        if(inputs.length != weights[0][0].length){
-            System.out.println("FORWARD ERROR : Number of inputs incorrect. Expected : "+weights[0][0].length+", got : "+inputs.length+".");
-            return null;
+    @Override
+    public double[] forward(double[] inputs) throws NonMatchingSizesException {
+        if(inputs.length != sizes[0]){
+            throw new NonMatchingSizesException("FORWARD ERROR : Number of inputs incorrect. Expected : "+sizes[0]+", got : "+inputs.length+".");
         }
         double[] outputs = inputs;
         for (int l = 0; l< weights.length; l++){
-            outputs = Matrix.matrixProduct(weights[l],outputs);
+            outputs = Matrix.matrixProduct(weights[l],sizes[l+1],outputs);
             outputs = Matrix.add(outputs, biases[l]);
-            outputs = Matrix.map(outputs, activation);
+            activations[l].apply(outputs, outputs);
         }
         return outputs;
     }
 
+    /**
+     * Returns an {@link Brain.Evaluator evaluator} propagating forward inside its own {@link Workspace workspace}.
+     * @return A new {@link Brain.Evaluator}.
+     */
+    @Override
+    public Evaluator newEvaluator(){
+        Workspace evaluatorWorkspace = newWorkspace();
+        return inputs -> forward(inputs, evaluatorWorkspace);
+    }
+
+    /**
+     * Returns a {@link Brain.BatchEvaluator batch evaluator} computing each layer of a whole batch
+     * with one matrix-matrix product.
+     * @param batchSize Number of samples of each batch.
+     * @return A new {@link Brain.BatchEvaluator}.
+     */
+    @Override
+    public BatchEvaluator newBatchEvaluator(int batchSize){
+        double[][] outputs = new double[weights.length][];
+        for (int l = 0; l< weights.length; l++)
+            outputs[l] = new double[batchSize*sizes[l+1]];
+        return inputs -> {
+            for (int l = 0; l< weights.length; l++){
+                Matrix.matrixProductTransposed(l>0?outputs[l-1]:inputs, batchSize, sizes[l],
+                        weights[l], sizes[l+1], outputs[l]);
+                Matrix.addToRowsAndMap(outputs[l], biases[l], activations[l]);
+            }
+            return outputs[outputs.length-1];
+        };
+    }
+
+    /**
+     * Propagate forward the {@link double[] inputs} inside the buffers of a {@link Workspace workspace},
+     * without allocating anything.
+     * @param inputs {@link double[]}.
+     * @param workspace {@link Workspace} owned by the calling thread.
+     * @return {@link double[] outputs}, which is a buffer of the {@link Workspace workspace}
+     * that will be overwritten by its next use.
+     * @throws NonMatchingSizesException Custom Exception in the present package.
+     */
+    double[] forward(double[] inputs, Workspace workspace) throws NonMatchingSizesException {
+        if(inputs.length != sizes[0]){
+            throw new NonMatchingSizesException("FORWARD ERROR : Number of inputs incorrect. Expected : "+sizes[0]+", got : "+inputs.length+".");
+        }
+        double[][] outputs = workspace.outputs;
+        for (int l = 0; l< weights.length; l++)
+            Matrix.layer(weights[l], biases[l], l>0?outputs[l-1]:inputs, activations[l], outputs[l]);
+        return outputs[outputs.length-1];
+    }
+
+    /**
+     * Backpropagate the target outputs to tweak weights and biases,
+     * so that the {@link NeuralNetwork neural network} can "learn".
+     * Uses the {@link Workspace workspace} of the {@link NeuralNetwork neural network} itself.
+     * @param inputs {@link double[]}
+     * @param targets {@link double[]}
+     * @throws NonMatchingSizesException Custom Exception in the present package.
+     */
+    @Override
+    public void back(double[] inputs, double[] targets) throws NonMatchingSizesException {
+        if(workspace == null)
+            workspace = newWorkspace();
+        back(inputs, targets, workspace);
+    }
+
     /**
      * Backpropagate the target outputs to tweak weights and biases,
      * so that the {@link NeuralNetwork neural network} can "learn".
+     * Every intermediate result is written inside the {@link Workspace workspace}
+     * and the weights and biases are updated in place, so that nothing is allocated.
+     * The gradients are kept unscaled, the learning rate being applied while updating.
      * @param inputs {@link double[]}
      * @param targets {@link double[]}
+     * @param workspace {@link Workspace} owned by the calling thread.
+     * @throws NonMatchingSizesException Custom Exception in the present package.
+     */
+    void back(double[] inputs, double[] targets, Workspace workspace) throws NonMatchingSizesException {
+        if(inputs.length != sizes[0]){
+            throw new NonMatchingSizesException("BACK ERROR : Number of inputs incorrect. Expected : "+sizes[0]+", got : "+inputs.length+".");
+        }
+        if (targets.length != sizes[sizes.length-1]){
+            throw new NonMatchingSizesException("BACK ERROR : Number of outputs incorrect. Expected : "+sizes[sizes.length-1]+", got : "+targets.length+".");
+        }
+
+        int nbL = weights.length;
+        double[][] outputs = workspace.outputs,
+                errors = workspace.errors,
+                gradients = workspace.gradients;
+
+        // forward pass with outputs of each layer stored.
+        forward(inputs, workspace);
+
+        // outputs layer backPropagation
+        Matrix.substract(targets, outputs[nbL-1], errors[nbL-1]);
+        activations[nbL-1].derivative(outputs[nbL-1], errors[nbL-1], gradients[nbL-1]);
+
+        // hidden layers backPropagation
+        for (int  l = nbL-2; l>=0; l--){
+            Matrix.transposedMatrixProduct(weights[l+1], sizes[l+2], errors[l+1], errors[l]);
+            activations[l].derivative(outputs[l], errors[l], gradients[l]);
+        }
+
+        // updating the weights and biases
+        for (int l = 0; l<nbL;l++){
+            Matrix.addOuterProduct(weights[l], learningRate, gradients[l], l>0?outputs[l-1]:inputs);
+            Matrix.addExternalProduct(biases[l], learningRate, gradients[l]);
+        }
+
+    }
+
+    /**
+     * Backpropagates a whole batch of samples at once and applies one update, averaged over the batch,
+     * to the weights and biases.
+     * Uses a {@link BatchWorkspace batch workspace} of the {@link NeuralNetwork neural network} itself,
+     * which is created again only when the size of the batch changes. An empty batch changes nothing.
+     * @param inputs {@link double[][]} holding one row of inputs per sample.
+     * @param targets {@link double[][]} holding one row of targets per sample.
      * @throws NonMatchingSizesException Custom Exception in the present package.
      */
-    void back(double[] inputs, double[] targets) throws NonMatchingSizesException {
-        if(inputs.length != weights[0][0].length){
-            System.out.println("BACK ERROR : Number of inputs incorrect. Expected : "+weights[0][0].length+", got : "+inputs.length+".");
+    @Override
+    public void backBatch(double[][] inputs, double[][] targets) throws NonMatchingSizesException {
+        if(inputs.length == 0 && targets.length == 0)
             return;
+        if(batchWorkspace == null || batchWorkspace.batchSize != inputs.length)
+            batchWorkspace = newBatchWorkspace(inputs.length);
+        backBatch(inputs, targets, batchWorkspace);
+    }
+
+    /**
+     * Backpropagates a whole batch of samples at once and applies one update, averaged over the batch,
+     * to the weights and biases.
+     * Each layer is computed for all the samples with matrix-matrix products instead of one matrix-vector
+     * product per sample.
+     * @param inputs {@link double[][]} holding one row of inputs per sample.
+     * @param targets {@link double[][]} holding one row of targets per sample.
+     * @param workspace {@link BatchWorkspace} owned by the calling thread, sized for this batch.
+     * @throws NonMatchingSizesException Custom Exception in the present package.
+     */
+    void backBatch(double[][] inputs, double[][] targets, BatchWorkspace workspace) throws NonMatchingSizesException {
+        int batchSize = workspace.batchSize, nbInputs = sizes[0], nbOutputs = sizes[sizes.length-1];
+        if(inputs.length != batchSize || targets.length != batchSize){
+            throw new NonMatchingSizesException("BACK BATCH ERROR : Number of samples incorrect. Expected : "+batchSize
+                    +", got : "+inputs.length+" inputs and "+targets.length+" targets.");
         }
-        if (targets.length != weights[weights.length-1].length){
-            System.out.println("BACK ERROR : Number of outputs incorrect. Expected : "+weights[weights.length-1].length+", got : "+targets.length+".");
+        if(batchSize == 0)
             return;
+        for (int s = 0; s< batchSize; s++){
+            if(inputs[s].length != nbInputs || targets[s].length != nbOutputs){
+                throw new NonMatchingSizesException("BACK BATCH ERROR : Sample #"+s+" incorrect. Expected : "+nbInputs+" inputs and "
+                        +nbOutputs+" outputs, got : "+inputs[s].length+" and "+targets[s].length+".");
+            }
+            System.arraycopy(inputs[s], 0, workspace.inputs, s*nbInputs, nbInputs);
+            System.arraycopy(targets[s], 0, workspace.targets, s*nbOutputs, nbOutputs);
         }
 
         int nbL = weights.length;
-        double[][][] deltaWeights = new double[nbL][][];
-        double[][] deltaBiases = new double[nbL][];
+        double[][] outputs = workspace.outputs,
+                errors = workspace.errors,
+                gradients = workspace.gradients;
 
-        // forward pass with outputs of each layer stored.
-        double[][] outputs = new double[nbL][];
+        // forward pass, one row of outputs per sample.
         for (int l = 0; l< nbL; l++){
-            outputs[l] = Matrix.matrixProduct(weights[l],l>0?outputs[l-1]:inputs);
-            outputs[l] = Matrix.add(outputs[l], biases[l]);
-            outputs[l] = Matrix.map(outputs[l], activation);
+            Matrix.matrixProductTransposed(l>0?outputs[l-1]:workspace.inputs, batchSize, sizes[l],
+                    weights[l], sizes[l+1], outputs[l]);
+            Matrix.addToRowsAndMap(outputs[l], biases[l], activations[l]);
         }
 
         // outputs layer backPropagation
-        double[] errors = Matrix.substract(targets, outputs[nbL-1]);
-        double[] gradients = Matrix.map(outputs[nbL-1],derivatedActivation);
-        gradients = Matrix.multiply(gradients, errors);
-        gradients = Matrix.externalProduct(gradients, learningRate);
-        deltaBiases[nbL-1] = gradients;
-
-        deltaWeights[nbL-1] = Matrix.matrixProduct(gradients,outputs[nbL-2]);
+        Matrix.substract(workspace.targets, outputs[nbL-1], errors[nbL-1]);
+        activations[nbL-1].derivative(outputs[nbL-1], errors[nbL-1], gradients[nbL-1]);
 
         // hidden layers backPropagation
         for (int  l = nbL-2; l>=0; l--){
-            errors = Matrix.matrixProduct(Matrix.transpose(weights[l+1]),errors);
-            gradients = Matrix.map(outputs[l],derivatedActivation);
-            gradients = Matrix.multiply(gradients, errors);
-            gradients = Matrix.externalProduct(gradients, learningRate);
-            deltaBiases[l] = gradients;
-            deltaWeights[l] = Matrix.matrixProduct(gradients, l>0?outputs[l-1]:inputs);
+            Matrix.matrixProduct(errors[l+1], batchSize, sizes[l+2], weights[l+1], sizes[l+1], errors[l]);
+            activations[l].derivative(outputs[l], errors[l], gradients[l]);
         }
 
-        // updating the weights and biases
+        // updating the weights and biases with the mean of the gradients
+        double rate = learningRate/batchSize;
         for (int l = 0; l<nbL;l++){
-            weights[l] = Matrix.add(weights[l],deltaWeights[l]);
-            biases[l] = Matrix.add(biases[l], deltaBiases[l]);
+            Matrix.transposedMatrixProduct(gradients[l], batchSize, sizes[l+1],
+                    l>0?outputs[l-1]:workspace.inputs, sizes[l], workspace.deltaWeights[l]);
+            Matrix.addExternalProduct(weights[l], rate, workspace.deltaWeights[l]);
+            Matrix.sumRows(gradients[l], workspace.deltaBiases[l]);
+            Matrix.addExternalProduct(biases[l], rate, workspace.deltaBiases[l]);
         }
+    }
+
+    /**
+     * Creates the buffers needed to propagate through this {@link NeuralNetwork neural network}.
+     * A {@link Workspace workspace} must not be shared between threads.
+     * @return A new {@link Workspace}.
+     */
+    Workspace newWorkspace(){
+        return new Workspace(sizes);
+    }
+
+    /**
+     * Creates the buffers needed to backpropagate batches of a given size through this
+     * {@link NeuralNetwork neural network}.
+     * A {@link BatchWorkspace batch workspace} must not be shared between threads.
+     * @param batchSize Number of samples per batch.
+     * @return A new {@link BatchWorkspace}.
+     */
+    BatchWorkspace newBatchWorkspace(int batchSize){
+        return new BatchWorkspace(sizes, batchSize);
+    }
+
+
+    /**
+     * Returns a deep copy of the {@link NeuralNetwork neural network}, with its own buffers.
+     * @return A new {@link NeuralNetwork}.
+     */
+    @Override
+    public Brain replicate(){
+        return new NeuralNetwork(this, false);
+    }
 
+    /**
+     * Returns a {@link NeuralNetwork neural network} training the very same weights and biases, with its own buffers.
+     * @return A new {@link NeuralNetwork}.
+     */
+    @Override
+    public Brain share(){
+        return new NeuralNetwork(this, true);
     }
 
     /**
-     * Create a layer as a 2d matrix
+     * Overwrites the weights and biases with those of another {@link NeuralNetwork neural network} of the same architecture.
+     * @param source {@link Brain} to copy, which must be a {@link NeuralNetwork}.
+     */
+    @Override
+    public void copyOf(Brain source){
+        NeuralNetwork other = sameArchitecture(source);
+        for (int l = 0; l< weights.length; l++){
+            System.arraycopy(other.weights[l], 0, weights[l], 0, weights[l].length);
+            System.arraycopy(other.biases[l], 0, biases[l], 0, biases[l].length);
+        }
+    }
+
+    /**
+     * Overwrites the weights and biases with the mean of those of several {@link NeuralNetwork neural networks}.
+     * @param replicas {@link Brain brains} to average, which must be {@link NeuralNetwork neural networks} of the same architecture.
+     */
+    @Override
+    public void averageOf(Brain[] replicas){
+        NeuralNetwork[] others = new NeuralNetwork[replicas.length];
+        for (int r = 0; r< replicas.length; r++)
+            others[r] = sameArchitecture(replicas[r]);
+        double factor = 1.0/replicas.length;
+        for (int l = 0; l< weights.length; l++){
+            average(weights[l], others, l, true, factor);
+            average(biases[l], others, l, false, factor);
+        }
+    }
+
+    /**
+     * Writes the mean of the same layer of several {@link NeuralNetwork neural networks} inside an array.
+     * @param ret Weights or biases of the layer, receiving the mean.
+     * @param others {@link NeuralNetwork Neural networks} to average.
+     * @param layer Index of the layer.
+     * @param isWeights True to average the weights, false to average the biases.
+     * @param factor 1/others.length.
+     */
+    private static void average(double[] ret, NeuralNetwork[] others, int layer, boolean isWeights, double factor){
+        System.arraycopy(isWeights?others[0].weights[layer]:others[0].biases[layer], 0, ret, 0, ret.length);
+        for (int r = 1; r< others.length; r++){
+            double[] array = isWeights?others[r].weights[layer]:others[r].biases[layer];
+            for (int i = 0; i< ret.length; i++)
+                ret[i]+= array[i];
+        }
+        for (int i = 0; i< ret.length; i++)
+            ret[i]*= factor;
+    }
+
+    /**
+     * Checks that a {@link Brain} is a {@link NeuralNetwork} with the same layers.
+     * @param brain {@link Brain} to check.
+     * @return The {@link Brain} as a {@link NeuralNetwork}.
+     * @throws IllegalArgumentException if it has another precision or other layers.
+     */
+    private NeuralNetwork sameArchitecture(Brain brain){
+        if(!(brain instanceof NeuralNetwork) || !Arrays.equals(sizes, ((NeuralNetwork)brain).sizes))
+            throw new IllegalArgumentException("NEURAL NETWORK : The networks don't share the same architecture.");
+        return (NeuralNetwork)brain;
+    }
+
+    /**
+     * Create a layer as a row-major matrix flattened in one {@link double[] array}
      * with random {@link double[] doubles}.
+     * @param random {@link Random} drawing the doubles.
      * @param nbNeurones Number of neurones of the layer.
      * @param nbInputs Number of inputs coming into the layer.
-     * @return A randomized {@link double[][] matrix} of correct sizes.
+     * @return A randomized {@link double[] matrix} of size nbNeurones*nbInputs.
      */
-    private double[][] createLayer(int nbNeurones, int nbInputs){
+    private double[] createLayer(Random random, int nbNeurones, int nbInputs){
 //        return debugCreateLayer(nbNeurones, nbInputs);
-        double[][] ret = new double[nbNeurones][nbInputs];
-        for (int n = 0; n< nbNeurones; n++){
-            for (int  w = 0; w <nbInputs; w++){
-                ret[n][w] = new Random().nextDouble();
-            }
-        }
+        double[] ret = new double[nbNeurones*nbInputs];
+        for (int w = 0; w< ret.length; w++)
+            ret[w] = random.nextDouble();
         return ret;
     }
 
     /**
      * Create a layer of biases with random {@link double doubles}.
+     * @param random {@link Random} drawing the doubles.
      * @param n Number of neurones in the layer.
      * @return An array of random doubles.
      */
-    private double[] createBiases(int n) {
+    private double[] createBiases(Random random, int n) {
 //        return debugCreateBiases(n);
         double[] ret = new double[n];
         for (int i = 0; i< n; i++)
-            ret[i] = new Random().nextDouble();
+            ret[i] = random.nextDouble();
+        return ret;
+    }
+
+    /**
+     * Writes the layers in their former nested form ({@link double[][][] weights[layer][neurone][input]}),
+     * and the {@link Activation activations} by id.
+     * @param oos {@link ObjectOutputStream}.
+     * @throws IOException Exception thrown when writing via the {@link ObjectOutputStream}.
+     */
+    private void writeObject(ObjectOutputStream oos) throws IOException {
+        double[][][] nestedWeights = new double[weights.length][][];
+        for (int l = 0; l< weights.length; l++){
+            nestedWeights[l] = new double[sizes[l+1]][sizes[l]];
+            for (int n = 0; n< sizes[l+1]; n++)
+                System.arraycopy(weights[l], n*sizes[l], nestedWeights[l][n], 0, sizes[l]);
+        }
+        ObjectOutputStream.PutField fields = oos.putFields();
+        fields.put("weights", nestedWeights);
+        fields.put("biases", biases);
+        fields.put("learningRate", learningRate);
+        int[] ids = new int[activations.length];
+        for (int l = 0; l< activations.length; l++)
+            ids[l] = activations[l].getId();
+        fields.put("activations", ids);
+        oos.writeFields();
+    }
+
+    /**
+     * Reads the layers from their nested form and flattens them.
+     * The {@link Activation activations} of the files saved before they were saved by id are all sigmoids.
+     * @param ois {@link ObjectInputStream}.
+     * @throws IOException Exception thrown when reading via the {@link ObjectInputStream}.
+     * @throws ClassNotFoundException Exception thrown when a serialized class is unknown.
+     */
+    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = ois.readFields();
+        double[][][] nestedWeights = (double[][][])fields.get("weights", null);
+        biases = (double[][])fields.get("biases", null);
+        learningRate = fields.get("learningRate", 0.0);
+        int[] ids = (int[])fields.get("activations", null);
+
+        sizes = new int[nestedWeights.length+1];
+        weights = new double[nestedWeights.length][];
+        sizes[0] = nestedWeights[0][0].length;
+        for (int l = 0; l< nestedWeights.length; l++){
+            sizes[l+1] = nestedWeights[l].length;
+            weights[l] = new double[sizes[l+1]*sizes[l]];
+            for (int n = 0; n< sizes[l+1]; n++)
+                System.arraycopy(nestedWeights[l][n], 0, weights[l], n*sizes[l], sizes[l]);
+        }
+
+        // Files saved before the activations were saved by id only use the sigmoid.
+        if(ids == null){
+            activations = sigmoids(weights.length);
+            return;
+        }
+        if(ids.length != weights.length)
+            throw new InvalidObjectException("NEURAL NETWORK : "+ids.length+" activations for "+weights.length+" layers.");
+        activations = new Activation[ids.length];
+        try {
+            for (int l = 0; l< ids.length; l++)
+                activations[l] = Activation.fromId(ids[l]);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidObjectException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void write(BinaryChannel out) throws IOException {
+        writeArchitecture(out, sizes, activations);
+        out.putDouble(learningRate);
+        for (int l = 0; l< weights.length; l++){
+            out.putDoubles(weights[l]);
+            out.putDoubles(biases[l]);
+        }
+    }
+
+    /**
+     * Reads a {@link NeuralNetwork neural network} written by {@link #write(BinaryChannel)}.
+     * @param in {@link BinaryChannel} to read.
+     * @return A new {@link NeuralNetwork}.
+     * @throws IOException Exception thrown when reading the channel, or when the architecture is invalid.
+     */
+    static NeuralNetwork read(BinaryChannel in) throws IOException {
+        NeuralNetwork ret = new NeuralNetwork();
+        ret.sizes = readSizes(in);
+        ret.activations = readActivations(in, ret.sizes.length-1);
+        ret.learningRate = in.getDouble();
+        checkRemaining(in, ret.sizes, Double.BYTES);
+        ret.weights = new double[ret.sizes.length-1][];
+        ret.biases = new double[ret.sizes.length-1][];
+        for (int l = 0; l< ret.weights.length; l++){
+            ret.weights[l] = new double[ret.sizes[l+1]*ret.sizes[l]];
+            ret.biases[l] = new double[ret.sizes[l+1]];
+            in.getDoubles(ret.weights[l]);
+            in.getDoubles(ret.biases[l]);
+        }
+        return ret;
+    }
+
+    /**
+     * Used by {@link #read(BinaryChannel)} only.
+     */
+    private NeuralNetwork(){
+    }
+
+    /**
+     * Writes the number of layers, the sizes, the ids of the {@link Activation activations},
+     * then zeros up to a multiple of 8 bytes, so that the layers which follow are aligned.
+     * Shared with the {@link FloatNeuralNetwork single precision network}.
+     * @param out {@link BinaryChannel} to write into.
+     * @param sizes Number of inputs, then number of neurones of each layer.
+     * @param activations {@link Activation} of each layer.
+     * @throws IOException Exception thrown when writing into the channel.
+     */
+    static void writeArchitecture(BinaryChannel out, int[] sizes, Activation[] activations) throws IOException {
+        out.putInt(activations.length);
+        out.putInts(sizes);
+        for (Activation activation : activations)
+            out.putInt(activation.getId());
+        out.padTo(Double.BYTES);
+    }
+
+    /**
+     * Reads the number of layers and the sizes written by {@link #writeArchitecture(BinaryChannel, int[], Activation[])}.
+     * @param in {@link BinaryChannel} to read.
+     * @return Number of inputs, then number of neurones of each layer.
+     * @throws IOException Exception thrown when reading the channel, or when the architecture is invalid.
+     */
+    static int[] readSizes(BinaryChannel in) throws IOException {
+        int[] sizes = in.getInts(checkNbLayers(in.getInt())+1);
+        checkSizes(sizes);
+        return sizes;
+    }
+
+    /**
+     * Checks a number of layers read from a file.
+     * @param nbLayers Number of layers, outputs layer included.
+     * @return nbLayers.
+     * @throws IOException if it is out of bounds.
+     */
+    static int checkNbLayers(int nbLayers) throws IOException {
+        if(nbLayers < 1 || nbLayers > MAX_LAYERS)
+            throw new IOException("NEURAL NETWORK : Invalid number of layers "+nbLayers+".");
+        return nbLayers;
+    }
+
+    /**
+     * Checks the sizes of the layers read from a file.
+     * @param sizes Number of inputs, then number of neurones of each layer.
+     * @throws IOException if a layer is empty or too large.
+     */
+    static void checkSizes(int[] sizes) throws IOException {
+        for (int l = 0; l< sizes.length-1; l++)
+            if(sizes[l] < 1 || sizes[l+1] < 1 || (long)sizes[l]*sizes[l+1] > MAX_LAYER_SIZE)
+                throw new IOException("NEURAL NETWORK : Invalid layer of "+sizes[l+1]+" neurones and "+sizes[l]+" inputs.");
+    }
+
+    /**
+     * Checks that the layers announced by the sizes read from a file are all there, before allocating them,
+     * so that a corrupted file can't exhaust the memory.
+     * @param in {@link BinaryChannel} positioned on the first layer.
+     * @param sizes Number of inputs, then number of neurones of each layer.
+     * @param bytesPerNumber Bytes of each weight or bias.
+     * @throws IOException if the channel holds less bytes than the layers, or when asking its size.
+     */
+    static void checkRemaining(BinaryChannel in, int[] sizes, int bytesPerNumber) throws IOException {
+        long numbers = 0;
+        for (int l = 0; l< sizes.length-1; l++)
+            numbers+= (long)sizes[l+1]*sizes[l] + sizes[l+1];
+        long remaining = in.remaining();
+        if(numbers*bytesPerNumber > remaining)
+            throw new IOException("NEURAL NETWORK : The file is truncated, its layers need "+numbers*bytesPerNumber
+                    +" bytes and only "+remaining+" remain.");
+    }
+
+    /**
+     * Reads the ids of the {@link Activation activations} and the padding written by
+     * {@link #writeArchitecture(BinaryChannel, int[], Activation[])}.
+     * @param in {@link BinaryChannel} to read.
+     * @param nbLayers Number of layers.
+     * @return {@link Activation} of each layer.
+     * @throws IOException Exception thrown when reading the channel, or when an id is unknown.
+     */
+    static Activation[] readActivations(BinaryChannel in, int nbLayers) throws IOException {
+        Activation[] ret = new Activation[nbLayers];
+        try {
+            for (int l = 0; l< nbLayers; l++)
+                ret[l] = Activation.fromId(in.getInt());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+        in.skipTo(Double.BYTES);
+        return ret;
+    }
+
+    /**
+     * Returns as many {@link Activation#SIGMOID sigmoids} as there are layers.
+     * @param nbLayers Number of layers, outputs layer included.
+     * @return {@link Activation[]}.
+     */
+    static Activation[] sigmoids(int nbLayers){
+        Activation[] ret = new Activation[nbLayers];
+        Arrays.fill(ret, Activation.SIGMOID);
         return ret;
     }
 
@@ -152,7 +672,7 @@ class NeuralNetwork implements Serializable {
         // Global Architecture :
         for (int i= 0; i<weights.length; i++) {
             sb.append("Layer #").append(i)
-                    .append(" has ").append(weights[i].length).append(" neurones.\n");
+                    .append(" has ").append(sizes[i+1]).append(" neurones (").append(activations[i]).append(").\n");
             sbNeurones.append(layerToString(i));
         }
 
@@ -167,7 +687,7 @@ class NeuralNetwork implements Serializable {
      */
     private String layerToString(int layerIndex){
         StringBuilder sb = new StringBuilder("Layer #").append(layerIndex).append(" : \n");
-        for (int j = 0; j< weights[layerIndex].length; j++){
+        for (int j = 0; j< sizes[layerIndex+1]; j++){
             sb.append("\t").append(neuroneToString(layerIndex,j)).append("\n");
         }
         return sb.toString();
@@ -184,8 +704,9 @@ class NeuralNetwork implements Serializable {
         StringBuilder sb = new StringBuilder("Neurone [").append(layerIndex)
                 .append("][").append(neurone).append("] : ")
                 .append("Bias = ").append(biases[layerIndex][neurone]).append(separator);
-        for (int k = 0; k<weights[layerIndex][neurone].length; k++){
-            sb.append("Weight #").append(k).append("=").append(weights[layerIndex][neurone][k])
+        int nbInputs = sizes[layerIndex];
+        for (int k = 0; k<nbInputs; k++){
+            sb.append("Weight #").append(k).append("=").append(weights[layerIndex][neurone*nbInputs+k])
                     .append(separator);
         }
         sb.delete(sb.lastIndexOf(separator), sb.length());
@@ -193,4 +714,53 @@ class NeuralNetwork implements Serializable {
     }
     // END NEURAL NETWORK DESCRIPTION
 
+    /**
+     * Preallocated buffers holding the outputs, errors and gradients of each layer,
+     * so that the propagations can be run again and again without producing any garbage.
+     */
+    static final class Workspace {
+        private final double[][] outputs, errors, gradients;
+
+        private Workspace(int[] sizes){
+            int nbL = sizes.length-1;
+            outputs = new double[nbL][];
+            errors = new double[nbL][];
+            gradients = new double[nbL][];
+            for (int l = 0; l< nbL; l++){
+                outputs[l] = new double[sizes[l+1]];
+                errors[l] = new double[sizes[l+1]];
+                gradients[l] = new double[sizes[l+1]];
+            }
+        }
+    }
+
+    /**
+     * Preallocated buffers holding, for a whole batch, the outputs, errors and gradients of each layer
+     * as row-major matrices with one row per sample, plus the summed deltas of the weights and biases.
+     */
+    static final class BatchWorkspace {
+        private final int batchSize;
+        private final double[] inputs, targets;
+        private final double[][] outputs, errors, gradients, deltaWeights, deltaBiases;
+
+        private BatchWorkspace(int[] sizes, int batchSize){
+            int nbL = sizes.length-1;
+            this.batchSize = batchSize;
+            inputs = new double[batchSize*sizes[0]];
+            targets = new double[batchSize*sizes[nbL]];
+            outputs = new double[nbL][];
+            errors = new double[nbL][];
+            gradients = new double[nbL][];
+            deltaWeights = new double[nbL][];
+            deltaBiases = new double[nbL][];
+            for (int l = 0; l< nbL; l++){
+                outputs[l] = new double[batchSize*sizes[l+1]];
+                errors[l] = new double[batchSize*sizes[l+1]];
+                gradients[l] = new double[batchSize*sizes[l+1]];
+                deltaWeights[l] = new double[sizes[l+1]*sizes[l]];
+                deltaBiases[l] = new double[sizes[l+1]];
+            }
+        }
+    }
+
 }
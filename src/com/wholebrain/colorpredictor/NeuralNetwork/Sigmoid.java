@@ -0,0 +1,146 @@
+package com.wholebrain.colorpredictor.NeuralNetwork;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Implementations of the sigmoid function 1/(1+exp(-x)), the activation of the {@link NeuralNetwork neural networks}.
+ * Calling {@link Math#exp(double)} for each neurone on each propagation is the most expensive part of a small network,
+ * so two approximations are offered beside the exact function :
+ * - EXACT : 1/(1+exp(-x)), no error.
+ * - TABLE : linear interpolation in a table of 4096 intervals over [-16, 16], clamped outside.
+ *   Maximum absolute error : 8.0e-7.
+ * - RATIONAL : 0.5+0.5*tanh(x/2), with tanh computed by its [7/6] Pade approximant and clamped beyond |x| = 9.9.
+ *   Maximum absolute error : 5.1e-5.
+ *
+ * The implementation used by the networks is chosen once, when the class is loaded,
+ * with the system property {@code colorpredictor.sigmoid} ("exact" by default).
+ * Each implementation maps whole arrays in one call with {@link #map(double[], int, int)},
+ * so that the loops of the fused kernels of {@link Matrix} only ever see one function.
+ */
+enum Sigmoid implements DoubleUnaryOperator {
+    EXACT {
+        @Override
+        public double applyAsDouble(double x){
+            return 1.0/(1.0+Math.exp(-x));
+        }
+
+        @Override
+        void map(double[] array, int from, int to){
+            for (int i = from; i< to; i++)
+                array[i] = 1.0/(1.0+Math.exp(-array[i]));
+        }
+
+        @Override
+        void map(float[] array, int from, int to){
+            for (int i = from; i< to; i++)
+                array[i] = (float)(1.0/(1.0+Math.exp(-array[i])));
+        }
+    },
+    TABLE {
+        @Override
+        public double applyAsDouble(double x){
+            return interpolate(x);
+        }
+
+        @Override
+        void map(double[] array, int from, int to){
+            for (int i = from; i< to; i++)
+                array[i] = interpolate(array[i]);
+        }
+
+        @Override
+        void map(float[] array, int from, int to){
+            for (int i = from; i< to; i++)
+                array[i] = (float)interpolate(array[i]);
+        }
+    },
+    RATIONAL {
+        @Override
+        public double applyAsDouble(double x){
+            return rational(x);
+        }
+
+        @Override
+        void map(double[] array, int from, int to){
+            for (int i = from; i< to; i++)
+                array[i] = rational(array[i]);
+        }
+
+        @Override
+        void map(float[] array, int from, int to){
+            for (int i = from; i< to; i++)
+                array[i] = (float)rational(array[i]);
+        }
+    };
+
+    static final Sigmoid SELECTED = select(System.getProperty("colorpredictor.sigmoid", "exact"));
+
+    private static final double TABLE_RANGE = 16.0;
+    private static final int TABLE_INTERVALS = 4096;
+    private static final double TABLE_SCALE = TABLE_INTERVALS/(2*TABLE_RANGE);
+    private static final double[] TABLE_VALUES = new double[TABLE_INTERVALS+1];
+    private static final double RATIONAL_LIMIT = 4.95;
+
+    static {
+        for (int i = 0; i< TABLE_VALUES.length; i++)
+            TABLE_VALUES[i] = 1.0/(1.0+Math.exp(-(i/TABLE_SCALE-TABLE_RANGE)));
+    }
+
+    /**
+     * Returns the implementation corresponding to a name, falling back to the exact one when unknown.
+     * @param name "exact", "table" or "rational".
+     * @return The {@link Sigmoid sigmoid} to use.
+     */
+    private static Sigmoid select(String name){
+        for (Sigmoid sigmoid : values())
+            if(sigmoid.name().equalsIgnoreCase(name))
+                return sigmoid;
+        Log.warn("SIGMOID : Unknown sigmoid \""+name+"\", using the exact one.");
+        return EXACT;
+    }
+
+    /**
+     * Applies the sigmoid, in place, to the cells of an array between two indexes.
+     * @param array Array, as a double[], to update.
+     * @param from Index of the first cell to update.
+     * @param to Index following the last cell to update.
+     */
+    abstract void map(double[] array, int from, int to);
+
+    /**
+     * @see #map(double[], int, int)
+     */
+    abstract void map(float[] array, int from, int to);
+
+    /**
+     * Sigmoid interpolated linearly between the two closest values of the table.
+     * @param x {@link double}.
+     * @return An approximation of 1/(1+exp(-x)).
+     */
+    private static double interpolate(double x){
+        if(x<= -TABLE_RANGE)
+            return TABLE_VALUES[0];
+        if(x>= TABLE_RANGE)
+            return TABLE_VALUES[TABLE_INTERVALS];
+        double position = (x+TABLE_RANGE)*TABLE_SCALE;
+        int index = (int)position;
+        double fraction = position-index;
+        return TABLE_VALUES[index] + fraction*(TABLE_VALUES[index+1]-TABLE_VALUES[index]);
+    }
+
+    /**
+     * Sigmoid computed as 0.5+0.5*tanh(x/2) with a rational approximation of tanh, without any call to exp.
+     * @param x {@link double}.
+     * @return An approximation of 1/(1+exp(-x)).
+     */
+    private static double rational(double x){
+        double t = 0.5*x;
+        if(t>= RATIONAL_LIMIT)
+            return 1.0;
+        if(t<= -RATIONAL_LIMIT)
+            return 0.0;
+        double t2 = t*t;
+        double tanh = t*(135135.0+t2*(17325.0+t2*(378.0+t2)))/(135135.0+t2*(62370.0+t2*(3150.0+28.0*t2)));
+        return 0.5+0.5*tanh;
+    }
+}
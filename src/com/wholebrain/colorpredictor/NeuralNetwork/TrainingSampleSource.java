@@ -0,0 +1,289 @@
+package com.wholebrain.colorpredictor.NeuralNetwork;
+
+import java.util.SplittableRandom;
+
+/**
+ * Source of the colours a {@link ColorNeuralNetwork color neural network} is trained on, seen as one long sequence
+ * of colours packed as 0xRRGGBB. Each worker reads its own share of the sequence through its own
+ * {@link Sampler sampler}, which is never shared, so that no worker ever waits for another one.
+ * Three {@link Kind kinds} are available :
+ * - RANDOM : uniform colours, each sampler owning its own {@link SplittableRandom}.
+ * - SOBOL : the Sobol sequence over the rgb cube, which fills it far more evenly than random colours,
+ *   so that fewer samples are needed to learn the whole cube.
+ * - HALTON : the Halton sequence in bases 2, 3 and 5, as evenly spread, without any table.
+ * A source is seeded, so that the same seed gives the same colours to the same workers : the seed of a random run is
+ * returned by {@link #getSeed()} to reproduce it. The low-discrepancy sequences are shifted by their seed.
+ * The source used by default is chosen with the system properties {@code colorpredictor.samples}
+ * ("random" by default) and {@code colorpredictor.seed} (random by default).
+ */
+public abstract class TrainingSampleSource {
+    public enum Kind{
+        RANDOM,
+        SOBOL,
+        HALTON
+    }
+
+    /**
+     * Colours of one worker, to read from one thread only.
+     */
+    public interface Sampler {
+        /**
+         * Returns the next colour.
+         * @return Colour packed as 0xRRGGBB.
+         */
+        int nextRgb();
+    }
+
+    private final Kind kind;
+    private final long seed;
+
+    private TrainingSampleSource(Kind kind, long seed){
+        this.kind = kind;
+        this.seed = seed;
+    }
+
+    /**
+     * Returns a source of a given {@link Kind kind}.
+     * @param kind {@link Kind} of sequence.
+     * @param seed Seed of the sequence.
+     * @return {@link TrainingSampleSource}.
+     */
+    public static TrainingSampleSource of(Kind kind, long seed){
+        switch (kind){
+            case SOBOL:
+                return new Sobol(seed);
+            case HALTON:
+                return new Halton(seed);
+            default:
+                return new Random(seed);
+        }
+    }
+
+    /**
+     * Returns the source described by the system properties {@code colorpredictor.samples}
+     * and {@code colorpredictor.seed}, with a random seed if the latter is missing or invalid.
+     * @return {@link TrainingSampleSource}.
+     */
+    public static TrainingSampleSource defaultSource(){
+        String name = System.getProperty("colorpredictor.samples", "random");
+        Kind kind = Kind.RANDOM;
+        boolean known = false;
+        for (Kind k : Kind.values())
+            if(k.name().equalsIgnoreCase(name)){
+                kind = k;
+                known = true;
+            }
+        if(!known)
+            Log.warn("SAMPLES : Unknown samples \""+name+"\", using random ones.");
+
+        String seedName = System.getProperty("colorpredictor.seed");
+        long seed;
+        try {
+            seed = seedName == null?new SplittableRandom().nextLong():Long.parseLong(seedName.trim());
+        } catch (NumberFormatException e) {
+            Log.warn("SAMPLES : Invalid seed \""+seedName+"\", using a random one.");
+            seed = new SplittableRandom().nextLong();
+        }
+        return of(kind, seed);
+    }
+
+    /**
+     * Returns the {@link Kind kind} of sequence.
+     * @return {@link Kind}.
+     */
+    public Kind getKind(){
+        return kind;
+    }
+
+    /**
+     * Returns the seed of the sequence, which gives the same colours again.
+     * @return {@link long}.
+     */
+    public long getSeed(){
+        return seed;
+    }
+
+    /**
+     * Returns a {@link Sampler sampler} reading the sequence from a given index.
+     * Workers sharing a training each read their own block of the sequence, starting where the previous one's ends.
+     * @param first Index of the first colour to read.
+     * @return A new {@link Sampler}.
+     */
+    public abstract Sampler sampler(long first);
+
+    @Override
+    public String toString(){
+        return kind+" (seed "+seed+")";
+    }
+
+    /**
+     * Mixes the bits of a {@link long} (variant 13 of the finalizer of MurmurHash3), so that close seeds
+     * give unrelated streams.
+     * @param z {@link long}.
+     * @return {@link long}.
+     */
+    private static long mix(long z){
+        z = (z^(z>>>30))*0xBF58476D1CE4E5B9L;
+        z = (z^(z>>>27))*0x94D049BB133111EBL;
+        return z^(z>>>31);
+    }
+
+    /**
+     * Uniform random colours. Each block of the sequence is drawn by its own {@link SplittableRandom},
+     * seeded by the seed of the source and the index of the block.
+     */
+    private static final class Random extends TrainingSampleSource {
+        private Random(long seed){
+            super(Kind.RANDOM, seed);
+        }
+
+        @Override
+        public Sampler sampler(long first){
+            SplittableRandom random = new SplittableRandom(mix(getSeed()^mix(first)));
+            return () -> random.nextInt(1<<24);
+        }
+    }
+
+    /**
+     * Sobol sequence over the rgb cube, with 32 bits per component, of which the 8 highest make the colour.
+     * The points are generated in Gray code order, each one being the previous one with one direction number
+     * xor-ed per component, and are shifted by a digital shift drawn from the seed.
+     */
+    private static final class Sobol extends TrainingSampleSource {
+        private static final int BITS = 32;
+        // Direction numbers of the three first dimensions (primitive polynomials 1, x+1 and x^2+x+1).
+        private static final int[][] DIRECTIONS = new int[3][BITS];
+        private final int[] shift = new int[3];
+
+        static {
+            int[][] initial = {{}, {1}, {1, 3}};
+            int[] polynomials = {0, 0, 1};
+            for (int d = 0; d< 3; d++){
+                int degree = initial[d].length;
+                for (int k = 0; k< BITS; k++){
+                    if(d == 0 || k < degree){
+                        int m = d == 0?1:initial[d][k];
+                        DIRECTIONS[d][k] = m<<(BITS-1-k);
+                    } else {
+                        int v = DIRECTIONS[d][k-degree]^(DIRECTIONS[d][k-degree]>>>degree);
+                        for (int j = 1; j< degree; j++)
+                            if((polynomials[d]>>>(degree-1-j)&1) != 0)
+                                v^= DIRECTIONS[d][k-j];
+                        DIRECTIONS[d][k] = v;
+                    }
+                }
+            }
+        }
+
+        private Sobol(long seed){
+            super(Kind.SOBOL, seed);
+            long bits = mix(seed);
+            shift[0] = (int)bits;
+            shift[1] = (int)(bits>>>32);
+            shift[2] = (int)mix(bits);
+        }
+
+        @Override
+        public Sampler sampler(long first){
+            int[] point = new int[3];
+            int start = (int)first;
+            int gray = start^(start>>>1);
+            for (int d = 0; d< 3; d++){
+                point[d] = shift[d];
+                for (int k = 0; k< BITS; k++)
+                    if((gray>>>k&1) != 0)
+                        point[d]^= DIRECTIONS[d][k];
+            }
+            return new Sampler() {
+                private int index = start;
+
+                @Override
+                public int nextRgb(){
+                    int rgb = (point[0]>>>24)<<16 | (point[1]>>>24)<<8 | point[2]>>>24;
+                    int k = Integer.numberOfTrailingZeros(++index);
+                    if(k < BITS)
+                        for (int d = 0; d< 3; d++)
+                            point[d]^= DIRECTIONS[d][k];
+                    return rgb;
+                }
+            };
+        }
+    }
+
+    /**
+     * Halton sequence over the rgb cube, in bases 2, 3 and 5, starting at an index drawn from the seed.
+     * Each component keeps the digits of the index in its base, so that going to the next index
+     * only changes the digits carried, instead of computing the whole radical inverse again.
+     */
+    private static final class Halton extends TrainingSampleSource {
+        private static final int[] BASES = {2, 3, 5};
+        private final long offset;
+
+        private Halton(long seed){
+            super(Kind.HALTON, seed);
+            offset = mix(seed)>>>24;
+        }
+
+        @Override
+        public Sampler sampler(long first){
+            RadicalInverse[] components = new RadicalInverse[BASES.length];
+            for (int c = 0; c< BASES.length; c++)
+                components[c] = new RadicalInverse(BASES[c], offset+first);
+            return () -> {
+                int rgb = components[0].component()<<16 | components[1].component()<<8 | components[2].component();
+                for (RadicalInverse component : components)
+                    component.increment();
+                return rgb;
+            };
+        }
+    }
+
+    /**
+     * Radical inverse of an index in a base : its digits mirrored after the point, within [0;1[.
+     */
+    private static final class RadicalInverse {
+        private final int base;
+        private final int[] digits = new int[64];
+        private final double[] factors = new double[64];
+        private double value;
+
+        /**
+         * @param base Base of the digits.
+         * @param index First index, positive.
+         */
+        private RadicalInverse(int base, long index){
+            this.base = base;
+            double factor = 1.0;
+            for (int d = 0; d< digits.length; d++){
+                factor/= base;
+                factors[d] = factor;
+            }
+            for (int d = 0; index> 0; d++, index/= base){
+                digits[d] = (int)(index%base);
+                value+= digits[d]*factors[d];
+            }
+        }
+
+        /**
+         * Goes to the next index.
+         */
+        private void increment(){
+            int d = 0;
+            while (digits[d] == base-1){
+                digits[d] = 0;
+                value-= (base-1)*factors[d];
+                d++;
+            }
+            digits[d]++;
+            value+= factors[d];
+        }
+
+        /**
+         * Returns the radical inverse of the current index as a component of a colour.
+         * @return {@link int}, within [0;255].
+         */
+        private int component(){
+            return Math.min(255, Math.max(0, (int)(value*256.0)));
+        }
+    }
+}
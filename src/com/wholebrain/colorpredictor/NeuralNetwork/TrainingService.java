@@ -0,0 +1,155 @@
+package com.wholebrain.colorpredictor.NeuralNetwork;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+
+/**
+ * Runs one {@link AutoTrainer autotraining} at a time in the background, which can be paused, resumed and cancelled.
+ * The service never reports anything by itself : the displays read its {@link State state}
+ * and its {@link #getTrained() progress} whenever they refresh, from any thread,
+ * so that the training loops never wait for them.
+ */
+public class TrainingService {
+    public enum State{
+        IDLE,
+        RUNNING,
+        PAUSED,
+        FINISHED,
+        CANCELLED,
+        FAILED
+    }
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.IDLE);
+    // Nanoseconds spent running, counted until the last pause, and time of the last start or resumption.
+    private final AtomicLong runningNanos = new AtomicLong(), resumedAt = new AtomicLong();
+    private volatile AutoTrainer trainer;
+    private volatile long samples;
+    private volatile Throwable failure;
+
+    /**
+     * Starts training in a new background thread.
+     * @param trainer {@link AutoTrainer} to run.
+     * @param samples Total number of samples to train.
+     * @param labeler Gives the expected {@link ColorNeuralNetwork.BWColor colour} of a colour packed as 0xRRGGBB.
+     * @throws IllegalStateException if a training is already running or paused.
+     */
+    public synchronized void start(AutoTrainer trainer, long samples, IntFunction<ColorNeuralNetwork.BWColor> labeler){
+        if(isActive())
+            throw new IllegalStateException("TRAINING SERVICE : A training is already running.");
+        this.trainer = trainer;
+        this.samples = samples;
+        failure = null;
+        runningNanos.set(0);
+        resumedAt.set(System.nanoTime());
+        state.set(State.RUNNING);
+        Thread thread = new Thread(() -> run(trainer, samples, labeler), "autotrain");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Body of the background thread.
+     * @see #start(AutoTrainer, long, IntFunction)
+     */
+    private void run(AutoTrainer trainer, long samples, IntFunction<ColorNeuralNetwork.BWColor> labeler){
+        State end;
+        try {
+            trainer.train(samples, labeler, done -> {});
+            end = trainer.isCancelled()?State.CANCELLED:State.FINISHED;
+        } catch (InterruptedException e) {
+            end = State.CANCELLED;
+        } catch (RuntimeException e) {
+            failure = e;
+            Log.error("TRAINING SERVICE : The training failed.", e);
+            end = State.FAILED;
+        }
+        synchronized (this){
+            if(state.get() == State.RUNNING)
+                runningNanos.addAndGet(System.nanoTime()-resumedAt.get());
+            state.set(end);
+        }
+    }
+
+    /**
+     * Pauses the running training, after the current block of samples of each worker.
+     */
+    public synchronized void pause(){
+        if(state.compareAndSet(State.RUNNING, State.PAUSED)){
+            runningNanos.addAndGet(System.nanoTime()-resumedAt.get());
+            trainer.pause();
+        }
+    }
+
+    /**
+     * Resumes the paused training.
+     */
+    public synchronized void resume(){
+        if(state.compareAndSet(State.PAUSED, State.RUNNING)){
+            resumedAt.set(System.nanoTime());
+            trainer.resume();
+        }
+    }
+
+    /**
+     * Cancels the running or paused training. The samples already trained are kept and published,
+     * and the {@link State state} becomes CANCELLED once the workers are stopped.
+     */
+    public synchronized void cancel(){
+        if(isActive())
+            trainer.cancel();
+    }
+
+    /**
+     * Returns the {@link State state} of the last training.
+     * @return {@link State}.
+     */
+    public State getState(){
+        return state.get();
+    }
+
+    /**
+     * Tells if a training is running or paused.
+     * @return {@link boolean}.
+     */
+    public boolean isActive(){
+        State current = state.get();
+        return current == State.RUNNING || current == State.PAUSED;
+    }
+
+    /**
+     * Returns the number of samples trained so far by the last training.
+     * @return {@link long}.
+     */
+    public long getTrained(){
+        AutoTrainer current = trainer;
+        return current == null?0:current.getTrained();
+    }
+
+    /**
+     * Returns the total number of samples of the last training.
+     * @return {@link long}.
+     */
+    public long getSamples(){
+        return samples;
+    }
+
+    /**
+     * Returns the number of samples trained per second by the last training, pauses excluded.
+     * @return {@link double}.
+     */
+    public double getSamplesPerSecond(){
+        long nanos = runningNanos.get();
+        if(state.get() == State.RUNNING)
+            nanos+= System.nanoTime()-resumedAt.get();
+        return nanos>0?getTrained()*1e9/nanos:0.0;
+    }
+
+    /**
+     * Returns what made the last training fail.
+     * @return {@link Throwable}, or null if it didn't fail.
+     */
+    public Throwable getFailure(){
+        return failure;
+    }
+}
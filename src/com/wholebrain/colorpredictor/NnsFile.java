@@ -0,0 +1,366 @@
+package com.wholebrain.colorpredictor;
+
+import com.wholebrain.colorpredictor.NeuralNetwork.BinaryChannel;
+import com.wholebrain.colorpredictor.NeuralNetwork.ColorNeuralNetwork;
+import com.wholebrain.colorpredictor.NeuralNetwork.Log;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamConstants;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Content of a nns {@link File file} : the {@link ColorNeuralNetwork color neural network} and the settings
+ * of the window it was saved with. It doesn't depend on JavaFX, so that the files can be read and written
+ * by the {@link Model model} as well as by the {@link CommandLine command line}.
+ * The files are written in the binary version 2, every number being little-endian :
+ * - int32 : {@link #MAGIC}, the bytes 0x89 'N' 'N' 'S'.
+ * - int32 : {@link #VERSION}.
+ * - the network, as written by {@link ColorNeuralNetwork#write(BinaryChannel)}, its layers being aligned on 8 bytes.
+ * - int8 : the mode, 1 for "Learn". int8 : 1 if the autotrain checkbox is checked.
+ * - int32 : the RGB threashold. int32 : the number of autotrainings. int32 : the index of the selected operator.
+ * - int32 : the number of operators, then for each operator its length in bytes (int32) and its UTF-8 bytes.
+ * - int32 : the CRC32 of all the bytes before it.
+ * The files of version 1 are still read : they hold the same content, in the same order,
+ * written by an {@link ObjectOutputStream}, the network being serialized with its Java object graph.
+ */
+final class NnsFile {
+    static final int MAGIC = 0x534E4E89, VERSION = 2;
+    static final List<String> DEFAULT_OPERATORS = Collections.unmodifiableList(Arrays.asList(">=","<"));
+    // Bounds of the operators read, so that a corrupted file can't exhaust the memory.
+    private static final int MAX_OPERATORS = 1024, MAX_OPERATOR_LENGTH = 1024;
+    private final ColorNeuralNetwork colorBrain;
+    private final boolean learnMode, checkedAutotrain;
+    private final int rgbThreashold, trainingTimes, selectedOperator;
+    private final List<String> operators;
+
+    NnsFile(ColorNeuralNetwork colorBrain, boolean learnMode, boolean checkedAutotrain, int rgbThreashold,
+            int trainingTimes, int selectedOperator, List<String> operators){
+        this.colorBrain = colorBrain;
+        this.learnMode = learnMode;
+        this.checkedAutotrain = checkedAutotrain;
+        this.rgbThreashold = rgbThreashold;
+        this.trainingTimes = trainingTimes;
+        this.selectedOperator = selectedOperator;
+        this.operators = new ArrayList<>(operators);
+    }
+
+    /**
+     * Reads a nns {@link File file}, of any version.
+     * @param file {@link File} to read.
+     * @return The {@link NnsFile content} of the file.
+     * @throws IOException Exception thrown when the file can't be opened.
+     * @throws IncorrectFileException Custom Exception thrown when the content of the file is unreadable.
+     */
+    static NnsFile read(File file) throws IOException, IncorrectFileException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (head.hasRemaining() && channel.read(head) >= 0);
+            channel.position(0);
+            if(head.position() == 4 && head.getInt(0) == MAGIC)
+                return read(BinaryChannel.reading(channel));
+            // Version 1 files start as any stream written by an ObjectOutputStream.
+            if(head.position() >= 2 && head.order(ByteOrder.BIG_ENDIAN).getShort(0) == ObjectStreamConstants.STREAM_MAGIC)
+                return read(objectInputStream(new BufferedInputStream(Channels.newInputStream(channel))));
+            throw new IncorrectFileException("NNS FILE : `"+file.getPath()+"` is not a nns file.");
+        }
+    }
+
+    /**
+     * Reads the content of a nns file of version 2.
+     * @param in {@link BinaryChannel} reading the file from its start.
+     * @return The {@link NnsFile content} read.
+     * @throws IncorrectFileException Custom Exception thrown when the content is unreadable, of an unknown version,
+     * or when its CRC32 doesn't match.
+     */
+    static NnsFile read(BinaryChannel in) throws IncorrectFileException {
+        try {
+            if(in.getInt() != MAGIC)
+                throw new IncorrectFileException("NNS FILE : Not a nns file.");
+            int version = in.getInt();
+            if(version != VERSION)
+                throw new IncorrectFileException("NNS FILE : Unknown version "+version+".");
+            return readSettings(in, ColorNeuralNetwork.read(in), true);
+        } catch (IOException e) {
+            throw new IncorrectFileException("NNS FILE : "+e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the settings which follow the network in a nns file of version 2, then its CRC32.
+     * @param in {@link BinaryChannel} positioned after the network.
+     * @param colorBrain {@link ColorNeuralNetwork} read or mapped before.
+     * @param checkCrc If true, the CRC32 is checked, which needs the {@link BinaryChannel} to have read the whole file.
+     * @return The {@link NnsFile content} read.
+     * @throws IOException Exception thrown when reading the channel.
+     * @throws IncorrectFileException Custom Exception thrown when the settings are unreadable or the CRC32 doesn't match.
+     */
+    private static NnsFile readSettings(BinaryChannel in, ColorNeuralNetwork colorBrain, boolean checkCrc)
+            throws IOException, IncorrectFileException {
+        boolean learnMode = in.getByte() != 0;
+        boolean checkedAutotrain = in.getByte() != 0;
+        int rgbThreashold = in.getInt();
+        int trainingTimes = in.getInt();
+        int selectedOperator = in.getInt();
+        int nbOperators = in.getInt();
+        if(nbOperators < 0 || nbOperators > MAX_OPERATORS)
+            throw new IncorrectFileException("NNS FILE : Invalid number of operators "+nbOperators+".");
+        List<String> operators = new ArrayList<>();
+        for (int i = 0; i<nbOperators; i++){
+            int length = in.getInt();
+            if(length < 0 || length > MAX_OPERATOR_LENGTH)
+                throw new IncorrectFileException("NNS FILE : Invalid operator of "+length+" bytes.");
+            byte[] bytes = new byte[length];
+            in.getBytes(bytes);
+            operators.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        int crc = in.crc();
+        if(in.getInt() != crc && checkCrc)
+            throw new IncorrectFileException("NNS FILE : The file is corrupted (CRC32 mismatch).");
+        return new NnsFile(colorBrain, learnMode, checkedAutotrain, rgbThreashold, trainingTimes, selectedOperator,
+                operators);
+    }
+
+    /**
+     * Maps a nns {@link File file} of version 2 read-only, so that its {@link ColorNeuralNetwork color neural network}
+     * guesses straight from the mapped pages without copying them onto the heap : the processes mapping the same file
+     * share them, and the loading time doesn't grow with the size of the network. The network can't be trained,
+     * and the CRC32 isn't checked, which would read the whole file. The files of version 1 are read as usual.
+     * @param file {@link File} to map.
+     * @return The {@link NnsFile content} of the file.
+     * @throws IOException Exception thrown when the file can't be opened or mapped.
+     * @throws IncorrectFileException Custom Exception thrown when the content of the file is unreadable.
+     * @see ColorNeuralNetwork#map(ByteBuffer)
+     */
+    static NnsFile map(File file) throws IOException, IncorrectFileException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE)
+                throw new IncorrectFileException("NNS FILE : `"+file.getPath()+"` is too large to be mapped.");
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if(buffer.remaining() < 4 || buffer.getInt(0) != MAGIC){
+                Log.info("NNS FILE : `"+file.getPath()+"` is not of version 2, it is read instead of mapped.");
+                return read(file);
+            }
+            buffer.position(4);
+            int version = buffer.remaining() >= 4?buffer.getInt():-1;
+            if(version != VERSION)
+                throw new IncorrectFileException("NNS FILE : Unknown version "+version+".");
+            try {
+                ColorNeuralNetwork colorBrain = ColorNeuralNetwork.map(buffer);
+                channel.position(buffer.position());
+                return readSettings(BinaryChannel.reading(channel), colorBrain, false);
+            } catch (IOException e) {
+                throw new IncorrectFileException("NNS FILE : "+e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Creates the {@link ObjectInputStream} reading the nns files of version 1, and the config file embedding them.
+     * The oldest files hold the former activations of the {@link ColorNeuralNetwork color neural network}
+     * as serializable lambdas, which can't be created again since they no longer exist : they are read as
+     * {@link SerializedLambda placeholders} and ignored.
+     * @param in {@link InputStream} to read.
+     * @return A new {@link ObjectInputStream}.
+     * @throws IOException Exception thrown when reading the header of the stream.
+     */
+    static ObjectInputStream objectInputStream(InputStream in) throws IOException {
+        return new ObjectInputStream(in){
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                if(desc.getName().equals("java.lang.invoke.SerializedLambda"))
+                    return SerializedLambda.class;
+                return super.resolveClass(desc);
+            }
+        };
+    }
+
+    /**
+     * Reads the content of a nns file of version 1 via an {@link ObjectInputStream}.
+     * @param ois {@link ObjectInputStream} created by {@link #objectInputStream(InputStream)}.
+     * @return The {@link NnsFile content} read.
+     * @throws IncorrectFileException Custom Exception thrown when the content is unreadable.
+     */
+    static NnsFile read(ObjectInputStream ois) throws IncorrectFileException {
+        try {
+            ColorNeuralNetwork colorBrain = (ColorNeuralNetwork)ois.readObject();
+            boolean learnMode = ois.readBoolean();
+            boolean checkedAutotrain = ois.readBoolean();
+            int rgbThreashold = ois.readInt();
+            int trainingTimes = ois.readInt();
+            int selectedOperator = ois.readInt();
+            int nbOperators = ois.readInt();
+            List<String> operators = new ArrayList<>();
+            for (int i = 0; i<nbOperators; i++)
+                operators.add((String)ois.readObject());
+            return new NnsFile(colorBrain, learnMode, checkedAutotrain, rgbThreashold, trainingTimes, selectedOperator,
+                    operators);
+        } catch (Exception e) {
+            throw new IncorrectFileException();
+        }
+    }
+
+    /**
+     * Writes a nns {@link File file} of version 2 without ever leaving it half written :
+     * the content goes into a temporary file of the same directory, which is forced onto the disk,
+     * then renamed atomically over the file. After a crash, the file is either the previous one or the new one.
+     * @param file {@link File} to write into.
+     * @throws IOException Exception thrown when writing or renaming the file. The previous file is then untouched.
+     */
+    void write(File file) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        Path temporary = target.resolveSibling(target.getFileName()+".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                write(BinaryChannel.writing(channel));
+                channel.force(true);
+            }
+            try {
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Log.info("NNS FILE : Atomic rename unsupported for "+target+", replacing it.");
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        forceDirectory(target.getParent());
+    }
+
+    /**
+     * Forces the entry of a renamed file onto the disk, by forcing its directory where the system allows it.
+     * @param directory {@link Path} of the directory.
+     */
+    private static void forceDirectory(Path directory){
+        if(directory == null)
+            return;
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Some systems, like Windows, can't open a directory : the rename is then only as durable as they make it.
+        }
+    }
+
+    /**
+     * Writes the content of a nns file of version 2, then flushes it.
+     * @param out {@link BinaryChannel} writing the file from its start.
+     * @throws IOException Exception thrown when writing into the channel.
+     */
+    void write(BinaryChannel out) throws IOException {
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        colorBrain.write(out);
+        out.putByte(learnMode?1:0);
+        out.putByte(checkedAutotrain?1:0);
+        out.putInt(rgbThreashold);
+        out.putInt(trainingTimes);
+        out.putInt(selectedOperator);
+        out.putInt(operators.size());
+        for (String operator : operators){
+            byte[] bytes = operator.getBytes(StandardCharsets.UTF_8);
+            out.putInt(bytes.length);
+            out.putBytes(bytes);
+        }
+        out.putInt(out.crc());
+        out.flush();
+    }
+
+    /**
+     * Writes the content of a nns file of version 1 via an {@link ObjectOutputStream}.
+     * Only used by the config file of the window, which embeds it.
+     * The network is written as its last published snapshot, so the window can be closed while it is trained.
+     * @param oos {@link ObjectOutputStream}.
+     * @throws IOException Exception thrown when writing via the {@link ObjectOutputStream}.
+     */
+    void write(ObjectOutputStream oos) throws IOException {
+        oos.writeObject(colorBrain);
+        oos.writeBoolean(learnMode);
+        oos.writeBoolean(checkedAutotrain);
+        oos.writeInt(rgbThreashold);
+        oos.writeInt(trainingTimes);
+        oos.writeInt(selectedOperator);
+        oos.writeInt(operators.size());
+        for (String operator : operators)
+            oos.writeObject(operator);
+    }
+
+    /**
+     * Returns the {@link ColorNeuralNetwork color neural network}.
+     * @return {@link ColorNeuralNetwork}.
+     */
+    ColorNeuralNetwork getColorBrain(){
+        return colorBrain;
+    }
+
+    /**
+     * Returns the mode the file was saved in.
+     * @return True for "Learn", false for "Predict".
+     */
+    boolean isLearnMode(){
+        return learnMode;
+    }
+
+    /**
+     * Tells if the autotrain option was checked.
+     * @return {@link boolean}.
+     */
+    boolean isCheckedAutotrain(){
+        return checkedAutotrain;
+    }
+
+    /**
+     * Returns the threashold of the RGB sum used to autotrain.
+     * @return {@link int}.
+     */
+    int getRgbThreashold(){
+        return rgbThreashold;
+    }
+
+    /**
+     * Returns the number of autotrainings set.
+     * @return {@link int}.
+     */
+    int getTrainingTimes(){
+        return trainingTimes;
+    }
+
+    /**
+     * Returns the index of the selected operator in the {@link #getOperators() operators}.
+     * @return {@link int}.
+     */
+    int getSelectedOperator(){
+        return selectedOperator;
+    }
+
+    /**
+     * Returns the {@link List<String> list of possible operators}.
+     * @return A {@link List<String>}.
+     */
+    List<String> getOperators(){
+        return operators;
+    }
+}
@@ -0,0 +1,564 @@
+package com.wholebrain.colorpredictor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.wholebrain.colorpredictor.NeuralNetwork.ColorNeuralNetwork;
+import com.wholebrain.colorpredictor.NeuralNetwork.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local HTTP server answering the guesses of a {@link ColorNeuralNetwork color neural network} loaded from a nns file,
+ * built on the server of the JDK, without JavaFX. It answers :
+ * - GET /predict?rgb=RRGGBB (or ?r=..&amp;g=..&amp;b=..) : one colour, as
+ *   {@code {"rgb":"ff8800","color":"black","certainty":0.99}}.
+ * - POST /predict : a batch of colours. With the type application/json, the body is an array of colours,
+ *   each one a number 0xRRGGBB or a string "RRGGBB" or "#RRGGBB", and the answer is
+ *   {@code {"colors":["black",...],"certainties":[0.99,...]}}. With the type application/octet-stream,
+ *   the body is 3 bytes (r, g, b) per colour, and the answer is 1 byte per colour (0 for black, 1 for white),
+ *   followed by the certainties as big-endian floats if the query holds certainty=true.
+ * - GET /stats : the counters of the server, in JSON.
+ * Each request is handled by its own virtual thread when the JVM offers them (Java 21+),
+ * otherwise by a fixed pool of threads, larger than the number of requests computed at once.
+ * At most a given number of requests are computed at once : the others wait for their turn, and are answered 503
+ * if it doesn't come within the queue timeout, counted from their arrival, waiting for a thread of the pool included.
+ */
+public class PredictionServer {
+    private static final int DEFAULT_PORT = 8080, DEFAULT_MAX_BATCH = 1<<20, DEFAULT_QUEUE_TIMEOUT_MS = 1000;
+    // Latencies are counted in buckets of powers of 2 microseconds, the last one gathering the longer ones.
+    private static final int LATENCY_BUCKETS = 32;
+    private static final String JSON = "application/json", BINARY = "application/octet-stream";
+    // Bytes of a colour in a JSON batch : "#RRGGBB" with its quotes, a comma, and room for the spaces or an indentation.
+    private static final int JSON_BYTES_PER_COLOUR = 16;
+    // Time at which the request handled by the current thread was handed to the executor.
+    private static final ThreadLocal<long[]> ARRIVAL = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final ColorNeuralNetwork network;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final int maxConcurrent, maxBatch;
+    private final long queueTimeoutMs;
+    private final long startNanos = System.nanoTime();
+    private final LongAdder requests = new LongAdder(), colours = new LongAdder(), rejected = new LongAdder(),
+            errors = new LongAdder(), latencyNanos = new LongAdder();
+    private final LongAdder[] latencies = new LongAdder[LATENCY_BUCKETS];
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    /**
+     * Creates a server, not started yet.
+     * @param network {@link ColorNeuralNetwork} answering the guesses.
+     * @param address Address to listen to, usually the loopback one.
+     * @param executor {@link ExecutorService} running the requests, see {@link #newExecutor(boolean, int)}.
+     * @param maxConcurrent Maximum number of requests computed at once.
+     * @param maxBatch Maximum number of colours of one request.
+     * @param queueTimeoutMs Time a request can wait for its turn before being answered 503.
+     * @throws IOException Exception thrown when the address can't be bound.
+     */
+    public PredictionServer(ColorNeuralNetwork network, InetSocketAddress address, ExecutorService executor,
+                            int maxConcurrent, int maxBatch, long queueTimeoutMs) throws IOException {
+        if(maxConcurrent < 1 || maxBatch < 1)
+            throw new IllegalArgumentException("SERVER : "+maxConcurrent+" concurrent requests of at most "
+                    +maxBatch+" colours are not possible.");
+        this.network = network;
+        this.executor = executor;
+        this.maxConcurrent = maxConcurrent;
+        this.maxBatch = maxBatch;
+        this.queueTimeoutMs = queueTimeoutMs;
+        permits = new Semaphore(maxConcurrent);
+        for (int b = 0; b< LATENCY_BUCKETS; b++)
+            latencies[b] = new LongAdder();
+        server = HttpServer.create(address, 0);
+        server.setExecutor(task -> {
+            long arrival = System.nanoTime();
+            executor.execute(() -> {
+                ARRIVAL.get()[0] = arrival;
+                task.run();
+            });
+        });
+        server.createContext("/predict", limited(this::predict));
+        server.createContext("/stats", this::stats);
+    }
+
+    /**
+     * Returns an {@link ExecutorService} starting a virtual thread per request if the JVM offers them,
+     * looked for by reflection so that the server still runs on the Java 11 it is compiled for.
+     * @param virtual If false, or if the virtual threads are missing, a fixed pool of platform threads is used.
+     * @param threads Number of platform threads of the pool. It must exceed the maximum number of requests
+     *                computed at once, so that the other requests wait for their turn on a thread of the pool,
+     *                and are answered 503 once the queue timeout is over.
+     * @return {@link ExecutorService}.
+     */
+    public static ExecutorService newExecutor(boolean virtual, int threads){
+        if(virtual){
+            try {
+                return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                Log.info("Virtual threads unavailable on Java "+Runtime.version().feature()
+                        +", using "+threads+" platform threads.");
+            }
+        }
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "prediction-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts answering the requests.
+     */
+    public void start(){
+        server.start();
+    }
+
+    /**
+     * Stops the server, letting the current requests end for at most a second, then stops its threads.
+     */
+    public void stop(){
+        server.stop(1);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the port the server listens to, useful when it was created on the port 0.
+     * @return {@link int}.
+     */
+    public int getPort(){
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Wraps a handler so that at most {@link #maxConcurrent} requests are computed at once, and counts them.
+     * The time waited for a thread of the executor is part of the queue timeout and of the latency.
+     * @param handler {@link HttpHandler} computing a request.
+     * @return {@link HttpHandler}.
+     */
+    private HttpHandler limited(HttpHandler handler){
+        return exchange -> {
+            long start = ARRIVAL.get()[0];
+            try {
+                boolean acquired;
+                try {
+                    long remaining = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMs)-(System.nanoTime()-start);
+                    acquired = remaining > 0 && permits.tryAcquire(remaining, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    acquired = false;
+                }
+                if(!acquired){
+                    rejected.increment();
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    sendText(exchange, 503, "Too many concurrent requests.");
+                    return;
+                }
+                try {
+                    handler.handle(exchange);
+                } catch (IllegalArgumentException e) {
+                    errors.increment();
+                    sendText(exchange, 400, e.getMessage());
+                } catch (RuntimeException e) {
+                    errors.increment();
+                    sendText(exchange, 500, "Internal error.");
+                    Log.error("SERVER : The request "+exchange.getRequestURI()+" failed.", e);
+                } finally {
+                    permits.release();
+                }
+            } finally {
+                exchange.close();
+            }
+            long latency = System.nanoTime()-start;
+            requests.increment();
+            latencyNanos.add(latency);
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            latencies[Math.min(LATENCY_BUCKETS-1, 64-Long.numberOfLeadingZeros(latency/1000))].increment();
+        };
+    }
+
+    /**
+     * Answers GET /predict for one colour and POST /predict for a batch.
+     * @param exchange {@link HttpExchange}.
+     * @throws IOException Exception thrown when reading the request or writing the answer.
+     */
+    private void predict(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        if(method.equals("GET"))
+            predictOne(exchange);
+        else if(method.equals("POST"))
+            predictBatch(exchange);
+        else
+            sendText(exchange, 405, "Use GET for a colour, POST for a batch.");
+    }
+
+    /**
+     * Answers one colour given by the query, without allocating anything but the answer.
+     * @param exchange {@link HttpExchange}.
+     * @throws IOException Exception thrown when writing the answer.
+     */
+    private void predictOne(HttpExchange exchange) throws IOException {
+        int rgb = parseQueryColour(exchange.getRequestURI());
+        long packed = network.guessPacked((rgb>>16)&0xFF, (rgb>>8)&0xFF, rgb&0xFF);
+        colours.increment();
+        send(exchange, 200, JSON, String.format(Locale.ROOT, "{\"rgb\":\"%06x\",\"color\":\"%s\",\"certainty\":%s}",
+                rgb, colourName(ColorNeuralNetwork.colorOf(packed)),
+                Float.toString((float)ColorNeuralNetwork.certaintyOf(packed))).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Answers a batch of colours, in JSON or binary depending on the type of the request.
+     * @param exchange {@link HttpExchange}.
+     * @throws IOException Exception thrown when reading the request or writing the answer.
+     */
+    private void predictBatch(HttpExchange exchange) throws IOException {
+        String type = exchange.getRequestHeaders().getFirst("Content-Type");
+        boolean binary = type != null && type.startsWith(BINARY);
+        byte[] body = readBody(exchange, (long)maxBatch*(binary?3:JSON_BYTES_PER_COLOUR)+2);
+        int[] batch = binary?parseBinary(body):parseJson(body);
+        if(batch.length > maxBatch)
+            throw new IllegalArgumentException("At most "+maxBatch+" colours per request.");
+        byte[] guesses = new byte[batch.length];
+        float[] certainties = new float[batch.length];
+        network.guessBatch(batch, guesses, certainties);
+        colours.add(batch.length);
+
+        if(binary){
+            boolean withCertainties = String.valueOf(exchange.getRequestURI().getQuery()).contains("certainty=true");
+            ByteBuffer answer = ByteBuffer.allocate(batch.length*(withCertainties?5:1));
+            answer.put(guesses);
+            if(withCertainties)
+                answer.asFloatBuffer().put(certainties);
+            send(exchange, 200, BINARY, answer.array());
+            return;
+        }
+        StringBuilder answer = new StringBuilder(batch.length*20+32).append("{\"colors\":[");
+        for (int i = 0; i< batch.length; i++)
+            answer.append(i==0?"":",").append(guesses[i]==0?"\"black\"":"\"white\"");
+        answer.append("],\"certainties\":[");
+        for (int i = 0; i< batch.length; i++)
+            answer.append(i==0?"":",").append(certainties[i]);
+        send(exchange, 200, JSON, answer.append("]}").toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Answers GET /stats with the counters of the server.
+     * @param exchange {@link HttpExchange}.
+     * @throws IOException Exception thrown when writing the answer.
+     */
+    private void stats(HttpExchange exchange) throws IOException {
+        try {
+            long count = requests.sum(), total = colours.sum();
+            double seconds = (System.nanoTime()-startNanos)/1e9;
+            send(exchange, 200, JSON, String.format(Locale.ROOT,
+                    "{\"requests\":%d,\"colours\":%d,\"rejected\":%d,\"errors\":%d,\"inFlight\":%d,"
+                            +"\"maxConcurrent\":%d,\"uptimeSeconds\":%.3f,\"requestsPerSecond\":%.1f,"
+                            +"\"coloursPerSecond\":%.1f,\"meanLatencyMicros\":%.1f,\"p50LatencyMicros\":%d,"
+                            +"\"p99LatencyMicros\":%d,\"maxLatencyMicros\":%d}",
+                    count, total, rejected.sum(), errors.sum(), maxConcurrent-permits.availablePermits(), maxConcurrent,
+                    seconds, count/seconds, total/seconds, count==0?0.0:latencyNanos.sum()/1e3/count,
+                    latencyPercentile(0.5), latencyPercentile(0.99), maxLatencyNanos.get()/1000)
+                    .getBytes(StandardCharsets.UTF_8));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Returns an upper bound of a percentile of the latencies, read from their buckets.
+     * @param fraction Percentile, within ]0;1].
+     * @return The bound, in microseconds, as a power of 2.
+     */
+    private long latencyPercentile(double fraction){
+        long[] counts = new long[LATENCY_BUCKETS];
+        long total = 0;
+        for (int b = 0; b< LATENCY_BUCKETS; b++)
+            total+= counts[b] = latencies[b].sum();
+        long seen = 0;
+        for (int b = 0; b< LATENCY_BUCKETS; b++){
+            seen+= counts[b];
+            if(seen > 0 && seen >= fraction*total)
+                return 1L<<b;
+        }
+        return 0;
+    }
+
+    /**
+     * Reads the colour of a single query : rgb=RRGGBB, or r=..&amp;g=..&amp;b=.. in decimal.
+     * @param uri {@link URI} of the request.
+     * @return Colour packed as 0xRRGGBB.
+     * @throws IllegalArgumentException if the colour is missing or invalid.
+     */
+    private static int parseQueryColour(URI uri){
+        String query = uri.getRawQuery();
+        int r = -1, g = -1, b = -1;
+        if(query != null)
+            for (String parameter : query.split("&")){
+                int equals = parameter.indexOf('=');
+                if(equals < 0)
+                    continue;
+                String name = parameter.substring(0, equals), value = parameter.substring(equals+1);
+                switch (name){
+                    case "rgb":
+                        return parseHex(value.startsWith("%23")?value.substring(3):value);
+                    case "r":
+                        r = parseComponent(value);
+                        break;
+                    case "g":
+                        g = parseComponent(value);
+                        break;
+                    case "b":
+                        b = parseComponent(value);
+                        break;
+                }
+            }
+        if(r < 0 || g < 0 || b < 0)
+            throw new IllegalArgumentException("Expected ?rgb=RRGGBB or ?r=..&g=..&b=..");
+        return r<<16|g<<8|b;
+    }
+
+    /**
+     * Reads a component of a colour, in decimal.
+     * @param value {@link String}.
+     * @return {@link int}, within [0;255].
+     * @throws IllegalArgumentException if the value is not a component.
+     */
+    private static int parseComponent(String value){
+        try {
+            int component = Integer.parseInt(value);
+            if(component >= 0 && component <= 255)
+                return component;
+        } catch (NumberFormatException ignored) {}
+        throw new IllegalArgumentException("Invalid component \""+value+"\", expected 0 to 255.");
+    }
+
+    /**
+     * Reads a colour written RRGGBB or #RRGGBB.
+     * @param value {@link String}.
+     * @return Colour packed as 0xRRGGBB.
+     * @throws IllegalArgumentException if the value is not a colour.
+     */
+    private static int parseHex(String value){
+        String hex = value.startsWith("#")?value.substring(1):value;
+        if(hex.length() == 6)
+            try {
+                return Integer.parseInt(hex, 16);
+            } catch (NumberFormatException ignored) {}
+        throw new IllegalArgumentException("Invalid colour \""+value+"\", expected RRGGBB.");
+    }
+
+    /**
+     * Reads a binary batch : 3 bytes per colour.
+     * @param body Body of the request.
+     * @return Colours packed as 0xRRGGBB.
+     */
+    private static int[] parseBinary(byte[] body){
+        if(body.length%3 != 0)
+            throw new IllegalArgumentException("The binary body must hold 3 bytes per colour.");
+        int[] batch = new int[body.length/3];
+        for (int i = 0; i< batch.length; i++)
+            batch[i] = (body[3*i]&0xFF)<<16 | (body[3*i+1]&0xFF)<<8 | body[3*i+2]&0xFF;
+        return batch;
+    }
+
+    /**
+     * Reads a JSON batch : an array of numbers 0xRRGGBB or of strings "RRGGBB" or "#RRGGBB".
+     * @param body Body of the request, in UTF-8.
+     * @return Colours packed as 0xRRGGBB.
+     */
+    private static int[] parseJson(byte[] body){
+        int[] batch = new int[16];
+        int count = 0, i = skipSpaces(body, 0);
+        if(i >= body.length || body[i] != '[')
+            throw new IllegalArgumentException("The JSON body must be an array of colours.");
+        i = skipSpaces(body, i+1);
+        boolean expectValue = i < body.length && body[i] != ']';
+        while (expectValue){
+            int value = 0, digits = 0;
+            if(i < body.length && body[i] == '"'){
+                i++;
+                if(i < body.length && body[i] == '#')
+                    i++;
+                for (; i< body.length && body[i] != '"'; i++, digits++){
+                    int digit = Character.digit(body[i], 16);
+                    if(digit < 0 || digits == 6)
+                        throw new IllegalArgumentException("Invalid colour at byte "+i+", expected \"RRGGBB\".");
+                    value = value<<4|digit;
+                }
+                if(digits != 6 || i >= body.length)
+                    throw new IllegalArgumentException("Invalid colour at byte "+i+", expected \"RRGGBB\".");
+                i++;
+            }else{
+                for (; i< body.length && body[i] >= '0' && body[i] <= '9'; i++, digits++){
+                    value = value*10+body[i]-'0';
+                    if(value > 0xFFFFFF)
+                        throw new IllegalArgumentException("Colour above 0xFFFFFF at byte "+i+".");
+                }
+                if(digits == 0)
+                    throw new IllegalArgumentException("Invalid colour at byte "+i+".");
+            }
+            if(count == batch.length)
+                batch = Arrays.copyOf(batch, count*2);
+            batch[count++] = value;
+            i = skipSpaces(body, i);
+            if(i < body.length && body[i] == ',')
+                i = skipSpaces(body, i+1);
+            else
+                expectValue = false;
+        }
+        if(i >= body.length || body[i] != ']' || skipSpaces(body, i+1) != body.length)
+            throw new IllegalArgumentException("The JSON array is not closed at byte "+i+".");
+        return Arrays.copyOf(batch, count);
+    }
+
+    /**
+     * Returns the index of the first byte, from a given one, that is not a JSON white space.
+     * @param body {@link byte[]}.
+     * @param i Index to start from.
+     * @return {@link int}, the length of the body if there is none.
+     */
+    private static int skipSpaces(byte[] body, int i){
+        while (i < body.length && (body[i] == ' ' || body[i] == '\n' || body[i] == '\r' || body[i] == '\t'))
+            i++;
+        return i;
+    }
+
+    /**
+     * Reads the body of a request, refusing it beyond a size.
+     * @param exchange {@link HttpExchange}.
+     * @param limit Maximum size, in bytes.
+     * @return {@link byte[]}.
+     * @throws IOException Exception thrown when reading the request.
+     * @throws IllegalArgumentException if the body is too large.
+     */
+    private static byte[] readBody(HttpExchange exchange, long limit) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) > 0;){
+            body.write(buffer, 0, n);
+            if(body.size() > limit)
+                throw new IllegalArgumentException("The body is larger than "+limit+" bytes.");
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Returns the name of a {@link ColorNeuralNetwork.BWColor colour} in the answers.
+     * @param colour {@link ColorNeuralNetwork.BWColor}.
+     * @return "black" or "white".
+     */
+    private static String colourName(ColorNeuralNetwork.BWColor colour){
+        return colour == ColorNeuralNetwork.BWColor.BLACK?"black":"white";
+    }
+
+    /**
+     * Answers a line of text, for the errors.
+     * @see #send(HttpExchange, int, String, byte[])
+     */
+    private static void sendText(HttpExchange exchange, int code, String message) throws IOException {
+        send(exchange, code, "text/plain; charset=utf-8", (message+"\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Answers a request.
+     * @param exchange {@link HttpExchange}.
+     * @param code HTTP status.
+     * @param type Type of the body.
+     * @param body {@link byte[]} of the answer.
+     * @throws IOException Exception thrown when writing the answer.
+     */
+    private static void send(HttpExchange exchange, int code, String type, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Loads a nns file and serves its network on the loopback address until the JVM is stopped.
+     * Options : --load file.nns (required), --port (8080), --max-concurrent (2 per core), --max-batch (1048576),
+     * --queue-timeout in ms (1000), --threads platform|virtual (virtual when available, otherwise a pool of twice
+     * the concurrent requests), --table true to compile the whole decision table first, --map true to guess straight
+     * from the mapped file, shared with the other processes mapping it, instead of reading it onto the heap.
+     * @param args Arguments of the command line.
+     */
+    public static void main(String[] args) {
+        File load = null;
+        int port = DEFAULT_PORT, maxConcurrent = 2*Runtime.getRuntime().availableProcessors(),
+                maxBatch = DEFAULT_MAX_BATCH;
+        long queueTimeout = DEFAULT_QUEUE_TIMEOUT_MS;
+        boolean virtual = true, table = false, map = false;
+        try {
+            for (int i = 0; i+1< args.length; i+= 2){
+                String value = args[i+1];
+                switch (args[i]){
+                    case "--load":
+                        load = new File(value);
+                        break;
+                    case "--port":
+                        port = Integer.parseInt(value);
+                        break;
+                    case "--max-concurrent":
+                        maxConcurrent = Integer.parseInt(value);
+                        break;
+                    case "--max-batch":
+                        maxBatch = Integer.parseInt(value);
+                        break;
+                    case "--queue-timeout":
+                        queueTimeout = Long.parseLong(value);
+                        break;
+                    case "--threads":
+                        virtual = !value.equalsIgnoreCase("platform");
+                        break;
+                    case "--table":
+                        table = Boolean.parseBoolean(value);
+                        break;
+                    case "--map":
+                        map = Boolean.parseBoolean(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option "+args[i]+".");
+                }
+            }
+            if(load == null || args.length%2 != 0)
+                throw new IllegalArgumentException("Usage : PredictionServer --load file.nns [--port 8080]"
+                        +" [--max-concurrent n] [--max-batch n] [--queue-timeout ms] [--threads virtual|platform]"
+                        +" [--table true] [--map true]");
+
+            ColorNeuralNetwork network = (map?NnsFile.map(load):NnsFile.read(load)).getColorBrain();
+            if(table)
+                network.compileTable(true);
+            PredictionServer server = new PredictionServer(network,
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                    newExecutor(virtual, 2*maxConcurrent), maxConcurrent, maxBatch, queueTimeout);
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+            System.out.println("Serving "+load.getPath()+" on http://localhost:"+server.getPort()
+                    +"/predict, counters on /stats.");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } catch (IOException | IncorrectFileException e) {
+            System.err.println("Unable to start the server : "+e);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.wholebrain.colorpredictor;
+
+import java.io.Serializable;
+
+/**
+ * Placeholder read instead of the {@link java.lang.invoke.SerializedLambda serialized lambdas} of the oldest
+ * nns files, by the streams of {@link NnsFile#objectInputStream(java.io.InputStream)}.
+ * A serialized lambda can only be created again by the class which declared it, and these lambdas no longer exist.
+ * The placeholder has the same simple name and serial version as the serialized lambdas so that its stream
+ * descriptor matches theirs : their fields are skipped, and it is read as null.
+ */
+final class SerializedLambda implements Serializable {
+    private static final long serialVersionUID = 8025925345765570181L;
+
+    /**
+     * Reads the placeholder as null, the lambda it stands for being ignored.
+     * @return null.
+     */
+    private Object readResolve(){
+        return null;
+    }
+}
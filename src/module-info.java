@@ -3,6 +3,7 @@ module ColorPredictor {
     requires javafx.controls;
     requires javafx.graphics;
     requires java.desktop;
+    requires jdk.httpserver;
 
     opens com.wholebrain.colorpredictor;
 }
\ No newline at end of file